@@ -0,0 +1,146 @@
+package com.greenscriptool;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An {@link IBuildListener} keeping a latency histogram per stage and one for
+ * whole bundle builds. Latencies are counted in buckets of powers of two
+ * microseconds, so that percentiles are reported as upper bounds, at most
+ * twice the real value.
+ *
+ * @since 1.2.9
+ */
+public class BuildHistogram implements IBuildListener {
+
+    private static final int BUCKETS_ = 32;
+
+    private static final int BUILD_ = IBuildListener.Stage.values().length;
+
+    /*
+     * bucket counts of each stage, then of builds
+     */
+    private final AtomicLongArray counts_ = new AtomicLongArray((BUILD_ + 1) * BUCKETS_);
+
+    private final AtomicLongArray nanos_ = new AtomicLongArray(BUILD_ + 1);
+
+    private void record_(final int i, final long nanos) {
+        long us = nanos / 1000;
+        int bucket = 0;
+        while (us > 0 && bucket < BUCKETS_ - 1) {
+            us >>>= 1;
+            ++bucket;
+        }
+        this.counts_.incrementAndGet(i * BUCKETS_ + bucket);
+        this.nanos_.addAndGet(i, nanos);
+    }
+
+    @Override
+    public void onStage(final Stage stage, final String bundle, final String file,
+            final long nanos) {
+        this.record_(stage.ordinal(), nanos);
+    }
+
+    @Override
+    public void onBuild(final String bundle, final List<String> resourceNames, final long nanos) {
+        this.record_(BUILD_, nanos);
+    }
+
+    private long count_(final int i) {
+        long n = 0;
+        for (int b = 0; b < BUCKETS_; ++b) {
+            n += this.counts_.get(i * BUCKETS_ + b);
+        }
+        return n;
+    }
+
+    /*
+     * upper bound in milliseconds of the given percentile
+     */
+    private double percentile_(final int i, final double p) {
+        long n = this.count_(i);
+        if (0 == n) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * p), seen = 0;
+        for (int b = 0; b < BUCKETS_; ++b) {
+            seen += this.counts_.get(i * BUCKETS_ + b);
+            if (seen >= rank) {
+                return (1L << b) / 1000.0;
+            }
+        }
+        return Double.MAX_VALUE;
+    }
+
+    /**
+     * Return the number of times a stage completed
+     */
+    public long getCount(final Stage stage) {
+        return this.count_(stage.ordinal());
+    }
+
+    public long getTotalMillis(final Stage stage) {
+        return this.nanos_.get(stage.ordinal()) / 1000000;
+    }
+
+    /**
+     * Return an upper bound of the given percentile of a stage latency
+     *
+     * @param stage
+     * @param p
+     *            the percentile, between 0 and 1
+     * @return milliseconds
+     */
+    public double getPercentileMillis(final Stage stage, final double p) {
+        return this.percentile_(stage.ordinal(), p);
+    }
+
+    /**
+     * Return the number of bundles built
+     */
+    public long getBuildCount() {
+        return this.count_(BUILD_);
+    }
+
+    /**
+     * Return an upper bound of the given percentile of bundle build time
+     *
+     * @param p
+     *            the percentile, between 0 and 1
+     * @return milliseconds
+     */
+    public double getBuildPercentileMillis(final double p) {
+        return this.percentile_(BUILD_, p);
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.counts_.length(); ++i) {
+            this.counts_.set(i, 0);
+        }
+        for (int i = 0; i < this.nanos_.length(); ++i) {
+            this.nanos_.set(i, 0);
+        }
+    }
+
+    private void append_(final StringBuilder sb, final String name, final int i) {
+        long n = this.count_(i);
+        if (0 == n) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        sb.append(String.format("%1$s: %2$s in %3$sms (p50 <= %4$sms, p99 <= %5$sms)", name, n,
+                this.nanos_.get(i) / 1000000, this.percentile_(i, 0.5), this.percentile_(i, 0.99)));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        this.append_(sb, "build", BUILD_);
+        for (Stage stage : Stage.values()) {
+            this.append_(sb, stage.name().toLowerCase(), stage.ordinal());
+        }
+        return sb.toString();
+    }
+}
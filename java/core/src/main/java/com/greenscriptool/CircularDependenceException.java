@@ -1,5 +1,9 @@
 package com.greenscriptool;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * <code>CircularDependenceException</code> is thrown out when a circular dependence 
  * relationship is found by {@link IDependenceManager}.
@@ -15,7 +19,48 @@ public class CircularDependenceException extends RuntimeException {
 
     private static final long serialVersionUID = -5547761752401762149L;
 
+    private final List<List<String>> cycles_;
+
     public CircularDependenceException(String element1, String element2) {
-        super(String.format("Circular dependence relationship found between %1$s and %1$s", element1, element2));
+        super(String.format("Circular dependence relationship found between %1$s and %2$s", element1, element2));
+        this.cycles_ = Collections.singletonList(Arrays.asList(element1, element2, element1));
+    }
+
+    /**
+     * Construct an exception reporting all circular dependences found
+     * 
+     * @param cycles each cycle is a list of resource names where each one depends
+     *        on the next one, and the last one is the same as the first one
+     * @since 1.2.9
+     */
+    public CircularDependenceException(List<List<String>> cycles) {
+        super(message_(cycles));
+        this.cycles_ = Collections.unmodifiableList(cycles);
+    }
+
+    /**
+     * @return the circular dependences found, see
+     *         {@link #CircularDependenceException(List)}
+     * @since 1.2.9
+     */
+    public List<List<String>> getCycles() {
+        return this.cycles_;
+    }
+
+    private static String message_(List<List<String>> cycles) {
+        StringBuilder sb = new StringBuilder("Circular dependence relationship found: ");
+        for (int i = 0; i < cycles.size(); ++i) {
+            if (i > 0) {
+                sb.append("; ");
+            }
+            List<String> cycle = cycles.get(i);
+            for (int j = 0; j < cycle.size(); ++j) {
+                if (j > 0) {
+                    sb.append(" < ");
+                }
+                sb.append(cycle.get(j));
+            }
+        }
+        return sb.toString();
     }
 }
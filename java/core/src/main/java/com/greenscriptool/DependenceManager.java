@@ -1,23 +1,30 @@
 package com.greenscriptool;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.greenscriptool.utils.LRUCache;
 
 /**
- * A tree node based implementation of {@link IDependenceManager}.
+ * A graph based implementation of {@link IDependenceManager}.
  * 
  * The dependence relationships is built up during construction of the instance.
  * The input is defined in a {@link Properties}.
@@ -31,14 +38,15 @@ import java.util.regex.Pattern;
  */
 public class DependenceManager implements IDependenceManager {
 
-    private Map<String, Node> dependencies_;// = new HashMap();
-
     public String debugString() {
+        Graph g = this.graph_;
         StringBuilder sb = new StringBuilder();
         sb.append("===============================================================").append(
                 "\n DependencyManager debug information ");
-        for (Node n : this.dependencies_.values()) {
-            sb.append(String.format("\n\n node info: %1$s\n", n.name_)).append(n.debugString());
+        for (int i = 0; i < g.size_; ++i) {
+            int id = g.order_[i];
+            sb.append(String.format("\n\n node info: %1$s\n", g.names_[id])).append(
+                    g.debugString_(id));
         }
 
         return sb.toString();
@@ -80,20 +88,212 @@ public class DependenceManager implements IDependenceManager {
      * @param dependencies
      */
     public DependenceManager(final Properties dependencies) {
-        this.dependencies_ = new HashMap<String, Node>();
+        Graph g = new Graph();
         for (String s : dependencies.stringPropertyNames()) {
             String v = dependencies.getProperty(s, "");
             if (null != v && !v.trim().equals("")) {
-                this.processInlineDependency(v);
+                this.applyInline_(g, v);
                 List<String> l = Arrays.asList(v.replaceAll("\\s+", "").split(SEPARATOR));
-                this.createNode_(s, l);
+                g.link_(s, l);
             } else {
-                this.processInlineDependency(s);
+                this.applyInline_(g, s);
+            }
+        }
+        g.load_();
+        this.graph_ = g.freeze_(this.comprehendCacheSize_);
+    }
+
+    private DependenceManager(final Graph graph) {
+        this.graph_ = graph.freeze_(this.comprehendCacheSize_);
+    }
+
+    /**
+     * identifies a binary dependence graph: "GSDG"
+     */
+    private static final int GRAPH_MAGIC_ = 0x47534447;
+    private static final int GRAPH_VERSION_ = 1;
+
+    /**
+     * <p>Write the dependence graph in a compact binary form that can be
+     * loaded by {@link #readGraph(InputStream, long)} without parsing and
+     * validating the dependence declarations again.</p>
+     * 
+     * <p><code>checksum</code> identifies the declarations the graph is built
+     * from, e.g. a checksum of the configuration files. The stream is not
+     * closed</p>
+     * 
+     * @param os
+     * @param checksum
+     * @throws IOException
+     * @since 1.2.9
+     */
+    public void writeGraph(final OutputStream os, final long checksum) throws IOException {
+        final Graph g = this.graph_;
+        CheckedOutputStream cos = new CheckedOutputStream(os, new CRC32());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(cos));
+        out.writeInt(GRAPH_MAGIC_);
+        out.writeInt(GRAPH_VERSION_);
+        out.writeLong(checksum);
+        out.writeInt(g.size_);
+        for (int i = 0; i < g.size_; ++i) {
+            out.writeUTF(g.names_[i]);
+            writeInt_(out, g.levels_[i]);
+        }
+        for (int i = 0; i < g.size_; ++i) {
+            int[] dependOns = g.dependOns_[i].clone();
+            Arrays.sort(dependOns);
+            writeInts_(out, dependOns);
+        }
+        for (int i = 0; i < g.size_; ++i) {
+            writeInts_(out, g.closures_[i]);
+        }
+        for (int i = 0; i < g.size_; ++i) {
+            writeInt_(out, g.order_[i]);
+        }
+        out.flush();
+        out.writeLong(cos.getChecksum().getValue());
+        out.flush();
+    }
+
+    /**
+     * Load a dependence graph written by {@link #writeGraph(OutputStream, long)}.
+     * The stream is not closed
+     * 
+     * @param is
+     * @param checksum
+     *            checksum of the current dependence declarations
+     * @return a dependence manager, or <code>null</code> if the graph was
+     *         built from other declarations than <code>checksum</code>
+     *         identifies, or written by an incompatible version
+     * @throws IOException
+     *             if the graph cannot be read or is corrupted
+     * @since 1.2.9
+     */
+    public static DependenceManager readGraph(final InputStream is, final long checksum)
+            throws IOException {
+        CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(is), new CRC32());
+        DataInputStream in = new DataInputStream(cis);
+        if (GRAPH_MAGIC_ != in.readInt() || GRAPH_VERSION_ != in.readInt()
+                || checksum != in.readLong()) {
+            return null;
+        }
+        int n = in.readInt();
+        Graph g = new Graph(n);
+        for (int i = 0; i < n; ++i) {
+            if (i != g.node_(in.readUTF())) {
+                throw new IOException("duplicate node in dependence graph");
             }
+            g.levels_[i] = readInt_(in);
+        }
+        for (int i = 0; i < n; ++i) {
+            g.dependOns_[i] = readInts_(in, n);
+        }
+        for (int i = 0; i < n; ++i) {
+            g.closures_[i] = readInts_(in, n);
         }
-        for (Node n : this.dependencies_.values()) {
-            n.rectify();
+        int[] order = new int[n];
+        for (int i = 0; i < n; ++i) {
+            order[i] = readInt_(in);
         }
+        long crc = cis.getChecksum().getValue();
+        if (crc != in.readLong()) {
+            throw new IOException("dependence graph corrupted");
+        }
+        g.restore_(order);
+        return new DependenceManager(g);
+    }
+
+    /**
+     * Write a non negative int in 7 bit groups, least significant first
+     */
+    private static void writeInt_(final DataOutputStream out, int i) throws IOException {
+        while ((i & ~0x7F) != 0) {
+            out.writeByte((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    private static int readInt_(final DataInputStream in) throws IOException {
+        int i = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            i |= (b & 0x7F) << shift;
+            if (0 == (b & 0x80)) {
+                return i;
+            }
+        }
+        throw new IOException("malformed int");
+    }
+
+    /**
+     * Write sorted ints as the length followed by deltas
+     */
+    private static void writeInts_(final DataOutputStream out, final int[] sorted) throws IOException {
+        writeInt_(out, sorted.length);
+        int prev = 0;
+        for (int i : sorted) {
+            writeInt_(out, i - prev);
+            prev = i;
+        }
+    }
+
+    private static int[] readInts_(final DataInputStream in, final int bound) throws IOException {
+        int len = readInt_(in);
+        if (len > bound) {
+            throw new IOException("malformed list");
+        }
+        int[] a = new int[len];
+        int prev = 0;
+        for (int i = 0; i < len; ++i) {
+            prev += readInt_(in);
+            if (prev >= bound) {
+                throw new IOException("malformed list");
+            }
+            a[i] = prev;
+        }
+        return a;
+    }
+
+    /**
+     * The current dependence graph. A published graph is never changed:
+     * mutations are applied to a copy which is then published in turn
+     */
+    private volatile Graph graph_;
+
+    /**
+     * Default maximum number of comprehended resource lists remembered
+     */
+    public static final int DEF_COMPREHEND_CACHE_SIZE = 500;
+
+    private int comprehendCacheSize_ = DEF_COMPREHEND_CACHE_SIZE;
+
+    /**
+     * Set the maximum number of comprehended resource lists remembered
+     * 
+     * @param size
+     */
+    public synchronized void setComprehendCacheSize(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.comprehendCacheSize_ = size;
+        this.graph_.comprehended_.setCapacity(size);
+    }
+
+    /**
+     * Return statistics of the comprehended resource list cache since the
+     * dependence graph was last changed
+     * 
+     * @return
+     */
+    public LRUCache.Stats getComprehendCacheStats() {
+        return this.graph_.comprehended_.getStats();
+    }
+
+    @Override
+    public long getVersion() {
+        return this.graph_.version_;
     }
 
     public List<String> comprehend(final Collection<String> resourceNames) {
@@ -104,9 +304,21 @@ public class DependenceManager implements IDependenceManager {
         if (resourceNames.isEmpty() && !withDefault) {
             return Collections.emptyList();
         }
-        List<String> retList = new ArrayList<String>();
-        Map<String, Node> nodes = new HashMap<String, Node>();
-        List<String> undefs = new ArrayList<String>();
+        final Graph g = this.graph_;
+        Query q = new Query(resourceNames, withDefault);
+        List<String> l = g.comprehended_.get(q);
+        if (null == l) {
+            l = Collections.unmodifiableList(this.comprehend_(g, q.names_, withDefault));
+            g.comprehended_.put(q, l);
+        }
+        return l;
+    }
+
+    private List<String> comprehend_(final Graph g, final List<String> resourceNames,
+            final boolean withDefault) {
+        long[] sel = new long[g.words_()];
+        List<String> undefs = null;
+        boolean withDef = withDefault;
         for (String name : resourceNames) {
             if (null == name) {
                 continue;
@@ -115,40 +327,36 @@ public class DependenceManager implements IDependenceManager {
             if ("".equals(name)) {
                 continue;
             }
-            Node n = this.dependencies_.get(name);
-            if (n != null) {
-                nodes.put(name, n);
-            } else {
+            Integer id = g.ids_.get(name);
+            if (null == id) {
+                if (null == undefs) {
+                    undefs = new ArrayList<String>();
+                }
                 if (!undefs.contains(name)) {
                     undefs.add(name);
                 }
+            } else if (id == g.default_) {
+                withDef = true;
+            } else {
+                g.select_(id, sel);
             }
         }
 
+        List<String> retList = new ArrayList<String>();
         // DEFAULT nodes go first
-        SortedSet<Node> defs = new TreeSet<Node>();
-        if (withDefault || nodes.containsKey(DEFAULT)) {
-            Node def = this.dependencies_.get(DEFAULT);
-            if (null != def) {
-                // remove DEFAULT from nodes as it is process right now
-                nodes.remove(DEFAULT);
-                defs.addAll(def.allDependOns());
-                for (Node n : defs) {
-                    retList.add(n.name_);
-                }
+        if (withDef && g.default_ > -1) {
+            long[] defs = new long[sel.length];
+            g.select_(g.default_, defs);
+            g.collect_(defs, retList);
+            for (int i = 0; i < sel.length; ++i) {
+                sel[i] &= ~defs[i];
             }
         }
+        g.collect_(sel, retList);
 
-        SortedSet<Node> all = new TreeSet<Node>();
-        for (Node n : nodes.values()) {
-            all.addAll(n.allDependOns());
+        if (null != undefs) {
+            retList.addAll(undefs);
         }
-        all.removeAll(defs);
-        for (Node n : all) {
-            retList.add(n.name_);
-        }
-
-        retList.addAll(undefs);
 
         return retList;
     }
@@ -172,287 +380,847 @@ public class DependenceManager implements IDependenceManager {
     }
 
     public final void addDependency(final String dependent, final Collection<String> dependsOn) {
-        this.createNode_(dependent, dependsOn);
-        for (Node n : this.dependencies_.values()) {
-            n.rectify();
+        this.addDependencies(Collections.singletonMap(dependent, dependsOn));
+    }
+
+    public synchronized void addDependencies(
+            final Map<String, ? extends Collection<String>> dependencies) {
+        Graph g = new Graph(this.graph_);
+        for (Map.Entry<String, ? extends Collection<String>> e : dependencies.entrySet()) {
+            g.addDependency_(e.getKey(), e.getValue());
         }
+        this.graph_ = g.freeze_(this.comprehendCacheSize_);
     }
 
-    private Set<String> inlineDepDeclarations = new HashSet<String>();
+    /**
+     * Default maximum number of inline declarations remembered as applied
+     */
+    public static final int DEF_INLINE_CACHE_SIZE = 1000;
 
-    public void processInlineDependency(String dependency) {
-        if (this.inlineDepDeclarations.contains(dependency)) {
+    /**
+     * Inline declarations that have been applied to the graph. A declaration
+     * evicted from here is parsed again next time, but does not change the
+     * graph as its edges are already there
+     */
+    private final LRUCache<String, Boolean> inlineDepDeclarations = new LRUCache<String, Boolean>(
+            DEF_INLINE_CACHE_SIZE);
+
+    /**
+     * Set the maximum number of inline declarations remembered as applied
+     * 
+     * @param size
+     */
+    public void setInlineCacheSize(final int size) {
+        this.inlineDepDeclarations.setCapacity(size);
+    }
+
+    public void processInlineDependency(final String dependency) {
+        if (null == dependency || dependency.trim().length() == 0) {
+            return; // nothing declared
+        }
+        if (null != this.inlineDepDeclarations.get(dependency)) {
             return; // already processed
         }
-        this.inlineDepDeclarations.add(dependency);
-        dependency = " " + dependency; // in order to match the regexp
-        final Pattern p = Pattern
-                .compile("(?=[\\s,;]+|(?<![\\w\\/\\-\\.:])([\\w\\/\\-\\.:]+\\s*[<>]\\s*[\\w\\/\\-\\.:]+))");
-        Matcher m = p.matcher(dependency);
-        boolean found = false;
-        while (m.find()) {
-            String g = m.group(1);
-            if (null == g) {
-                continue;
-            }
-            found = true;
-            String[] relation = g.split("[<>]");
-            String a = relation[0].trim();
-            String b = relation[1].trim();
-            if (g.indexOf('<') > -1) {
-                this.createNode_(a, Arrays.asList(new String[] { b }));
-            } else {
-                this.createNode_(b, Arrays.asList(new String[] { a }));
+        List<String[]> edges = parseInline_(dependency);
+        if (!edges.isEmpty()) {
+            synchronized (this) {
+                Graph g = this.graph_;
+                Graph g0 = null;
+                for (String[] edge : edges) {
+                    if (!g.dependOn_(edge[0], edge[1])) {
+                        if (null == g0) {
+                            g0 = new Graph(g);
+                        }
+                        g0.addEdge_(g0.node_(edge[0]), g0.node_(edge[1]));
+                    }
+                }
+                if (null != g0) {
+                    this.graph_ = g0.freeze_(this.comprehendCacheSize_);
+                }
             }
         }
-        if (found) {
-            for (Node n : this.dependencies_.values()) {
-                n.rectify();
+        // mark as processed only when the graph is published, otherwise a
+        // concurrent caller might skip it and comprehend with the old one
+        this.inlineDepDeclarations.put(dependency, Boolean.TRUE);
+    }
+
+    private void applyInline_(final Graph g, final String dependency) {
+        for (String[] edge : parseInline_(dependency)) {
+            g.link_(edge[0], Arrays.asList(new String[] { edge[1] }));
+        }
+        this.inlineDepDeclarations.put(dependency, Boolean.TRUE);
+    }
+
+    /**
+     * Parse an inline dependency declaration, e.g. <code>a &lt; b &lt; c</code>
+     * or <code>x &gt; y</code>.
+     * 
+     * <p>A declaration is split into names made of word characters and
+     * <code>/-.:</code>. Two adjacent names are related when they are
+     * separated by a single <code>&lt;</code> or <code>&gt;</code>, optionally
+     * surrounded by white spaces, e.g. <code>a &lt; b</code> means
+     * <code>a</code> depends on <code>b</code>, while <code>a &gt; b</code>
+     * means <code>b</code> depends on <code>a</code></p>
+     * 
+     * @param dependency
+     * @return list of <code>{dependent, dependOn}</code> pairs
+     */
+    static List<String[]> parseInline_(final String dependency) {
+        List<String[]> edges = Collections.emptyList();
+        final int len = dependency.length();
+        String prev = null;
+        char rel = 0;
+        int i = 0;
+        while (i < len) {
+            int start = i;
+            if (isNameChar_(dependency.charAt(i))) {
+                while (++i < len && isNameChar_(dependency.charAt(i)))
+                    ;
+                String name = dependency.substring(start, i);
+                if (0 != rel) {
+                    if (edges.isEmpty()) {
+                        edges = new ArrayList<String[]>();
+                    }
+                    edges.add('<' == rel ? new String[] { prev, name } : new String[] { name, prev });
+                }
+                prev = name;
+            } else {
+                while (++i < len && !isNameChar_(dependency.charAt(i)))
+                    ;
+                rel = null == prev ? 0 : relation_(dependency, start, i);
             }
         }
+        return edges;
     }
 
-    public static void main(final String[] args) throws IOException {
-        String s = "http://ahost.com/something.js > http://zbc-1.com.au/some/path/to/x19-v1.0.js < y < z < a > b > c > d";
-        String regex = "(?=[\\s,;]+|(?<![\\w\\/\\-\\.:])([\\w\\/\\-\\.:]+\\s*[<>]\\s*[\\w\\/\\-\\.:]+))";
+    private static boolean isNameChar_(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '/' || c == '-' || c == '.' || c == ':';
+    }
 
-        Pattern p = Pattern.compile(regex);
-        Matcher m = p.matcher(s);
-        while (m.find()) {
-            String d = m.group(1);
-            if (d != null) {
-                System.out.println(d);
-            }
+    private static boolean isSpace_(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    /**
+     * Return <code>&lt;</code> or <code>&gt;</code> if the separator between
+     * two names is a relation, or <code>0</code> otherwise
+     */
+    private static char relation_(final String s, int from, final int to) {
+        while (from < to && isSpace_(s.charAt(from))) {
+            ++from;
+        }
+        if (from == to) {
+            return 0;
+        }
+        char c = s.charAt(from++);
+        if ('<' != c && '>' != c) {
+            return 0;
+        }
+        while (from < to && isSpace_(s.charAt(from))) {
+            ++from;
         }
+        return from == to ? c : 0;
     }
 
     /**
-     * Create a node denoted by <code>dependent</code>. The node might not
-     * necessarily be "created" if a node corresponding to the given
-     * <code>dependent</code> has been created already.
-     * 
-     * A list of depend on resource names can be passed to build the immediate
-     * dependence relationship.
-     * 
-     * The node created will be stored in the dependence relationship container
-     * of this {@link IDependenceManager}
-     * 
-     * @param dependent
-     * @param dependsOn
-     * @return
+     * Key of comprehended resource lists
      */
-    private Node createNode_(final String dependent, final Collection<String> dependsOn) {
-        Node n = this.dependencies_.get(dependent);
-        if (null == n) {
-            n = new Node(dependent);
-            this.dependencies_.put(dependent, n);
+    private static final class Query {
+        private final List<String> names_;
+        private final boolean withDefault_;
+        private final int hash_;
+
+        private Query(final Collection<String> names, final boolean withDefault) {
+            this.names_ = new ArrayList<String>(names);
+            this.withDefault_ = withDefault;
+            this.hash_ = this.names_.hashCode() * 31 + (withDefault ? 1 : 0);
         }
 
-        List<String> e = Collections.emptyList();
-        for (String s : dependsOn) {
-            Node n0 = this.createNode_(s, e);
-            n.addDependOn(n0);
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Query)) {
+                return false;
+            }
+            Query that = (Query) obj;
+            return that.withDefault_ == this.withDefault_ && that.names_.equals(this.names_);
         }
 
-        return n;
+        @Override
+        public int hashCode() {
+            return this.hash_;
+        }
     }
 
     /**
-     * Node class abstract a dependent resource and the dependent relationship
-     * between the resource and all it's depend on resources
+     * <p>The dependence graph.</p>
      * 
-     * @author greenlaw110@gmail.com
+     * <p>Each node is given a stable id when it is created. For each node the
+     * graph keeps the direct depend on and dependent nodes, the sorted ids of
+     * its transitive closure (the node itself included), and its level, i.e.
+     * the length of the longest path from any node depending on it. Nodes are
+     * output by level descending and then by name descending, so that any node
+     * always goes after all its depend on nodes. The position of a node in that
+     * order is its rank.</p>
+     * 
+     * <p>Comprehending a list of resources is then a matter of setting the ranks
+     * of the closure of each resource in a bit set and reading the bit set from
+     * the lowest rank to the highest.</p>
+     * 
+     * <p>A graph loaded from scratch gets all edges linked first, then
+     * {@link #load_()} finds cycles, levels and closures in one pass.</p>
+     * 
+     * <p>A graph is changed only before it is published by
+     * {@link #freeze_(int)}. Adding an edge updates the closures of the
+     * dependent node and of its ancestors, and the levels of the depend on node
+     * and of its descendants, nothing else. Nodes whose level changed are then
+     * merged back into the previous order. Per node arrays are copied on write,
+     * so that a copy of a graph shares them with the original until they
+     * change.</p>
      */
-    private static class Node implements Comparable<Node> {
+    private static final class Graph {
         /**
-         * name of the node
+         * the gap between weights of adjacent levels, see
+         * {@link #debugString_(int)}
          */
-        private final String name_;
+        private static final int STEP_ = 10;
+
+        private static final int[] NONE_ = new int[0];
+
+        private static final AtomicLong VERSIONS_ = new AtomicLong();
+
+        private int size_;
         /**
-         * a map contains all immediate depend on resource of the resource
-         * denoted by this node
-         * 
-         * key - resource name val - resource presented by an <code>Node</code>
+         * node names indexed by id
          */
-        private final Map<String, Node> dependOns_;
+        private String[] names_;
         /**
-         * Weight is used to help sort nodes
-         * 
-         * The weight of the node shall always be smaller than the weight of any
-         * one of it's depend on nodes
+         * node name to id
+         */
+        private Map<String, Integer> ids_;
+        /**
+         * ids of direct depend on nodes, indexed by id
+         */
+        private int[][] dependOns_;
+        /**
+         * ids of direct dependent nodes, indexed by id
+         */
+        private int[][] dependents_;
+        /**
+         * sorted ids of the closure of each node, indexed by id
+         */
+        private int[][] closures_;
+        /**
+         * length of the longest path to each node, indexed by id
+         */
+        private int[] levels_;
+        /**
+         * node ids indexed by rank
+         */
+        private int[] order_;
+        /**
+         * node ranks indexed by id
+         */
+        private int[] ranks_;
+        /**
+         * id of the {@link IDependenceManager#DEFAULT} node, or -1
+         */
+        private int default_ = -1;
+        /**
+         * comprehended resource lists computed from this graph
+         */
+        private LRUCache<Query, List<String>> comprehended_;
+        /**
+         * unique among all graphs published, see
+         * {@link DependenceManager#getVersion()}
          */
-        private long weight_ = 1;
+        private long version_;
 
+        // the following are used only before the graph gets frozen
         /**
-         * the smallest gap between weight of nodes
+         * pairs of dependent and depend on ids linked but not loaded yet
          */
-        private static final int STEP_ = 10;
+        private int[] links_ = NONE_;
+        private int linkCount_;
+        private boolean idsShared_;
+        private int[] marks_;
+        private int stamp_;
+        private boolean[] moved_;
+        private List<Integer> movedList_;
+
+        private Graph() {
+            this(16);
+        }
+
+        private Graph(final int capacity) {
+            int n = Math.max(16, capacity);
+            this.names_ = new String[n];
+            this.ids_ = new HashMap<String, Integer>(n * 2);
+            this.dependOns_ = new int[n][];
+            this.dependents_ = new int[n][];
+            this.closures_ = new int[n][];
+            this.levels_ = new int[n];
+            this.order_ = NONE_;
+            this.ranks_ = NONE_;
+            this.beginChange_();
+        }
 
         /**
-         * keep track whether the dependencies of this node has been updated and
-         * needs rectify
+         * Construct a graph to be changed from a published graph
          */
-        private boolean dirty_ = true;
+        private Graph(final Graph base) {
+            this.size_ = base.size_;
+            this.names_ = base.names_.clone();
+            this.ids_ = base.ids_;
+            this.idsShared_ = true;
+            this.dependOns_ = base.dependOns_.clone();
+            this.dependents_ = base.dependents_.clone();
+            this.closures_ = base.closures_.clone();
+            this.levels_ = base.levels_.clone();
+            this.order_ = base.order_;
+            this.ranks_ = base.ranks_;
+            this.default_ = base.default_;
+            this.beginChange_();
+        }
+
+        private void beginChange_() {
+            this.marks_ = new int[this.names_.length];
+            this.moved_ = new boolean[this.names_.length];
+            this.movedList_ = new ArrayList<Integer>();
+        }
 
         /**
-         * Construct a <code>Node</code> instance
+         * Compute ranks of new nodes and nodes whose level changed, and make
+         * the graph ready to be published
          * 
-         * @param name
+         * @param cacheSize
+         *            maximum number of comprehended lists remembered
+         * @return this graph
          */
-        private Node(final String name) {
-            this.name_ = name;
-            this.dependOns_ = new HashMap<String, Node>();
+        private Graph freeze_(final int cacheSize) {
+            if (!this.movedList_.isEmpty()) {
+                Integer[] moved = this.movedList_.toArray(new Integer[this.movedList_.size()]);
+                Arrays.sort(moved, new Comparator<Integer>() {
+                    @Override
+                    public int compare(final Integer o1, final Integer o2) {
+                        return Graph.this.compare_(o1, o2);
+                    }
+                });
+                int[] old = this.order_;
+                int[] order = new int[this.size_];
+                int i = 0, j = 0, k = 0;
+                while (k < order.length) {
+                    if (i < old.length && this.moved_[old[i]]) {
+                        ++i;
+                    } else if (j == moved.length
+                            || (i < old.length && this.compare_(old[i], moved[j]) < 0)) {
+                        order[k++] = old[i++];
+                    } else {
+                        order[k++] = moved[j++];
+                    }
+                }
+                int[] ranks = new int[this.size_];
+                for (int r = 0; r < order.length; ++r) {
+                    ranks[order[r]] = r;
+                }
+                this.order_ = order;
+                this.ranks_ = ranks;
+            }
+            this.comprehended_ = new LRUCache<Query, List<String>>(cacheSize);
+            this.version_ = VERSIONS_.incrementAndGet();
+            this.links_ = null;
+            this.marks_ = null;
+            this.moved_ = null;
+            this.movedList_ = null;
+            return this;
         }
 
-        @Override
-        public boolean equals(final Object that) {
-            if (that == null) {
-                return false;
-            }
-            if (that == this) {
-                return true;
+        /**
+         * Compare nodes by output order
+         */
+        private int compare_(final int a, final int b) {
+            if (this.levels_[a] != this.levels_[b]) {
+                return this.levels_[a] > this.levels_[b] ? -1 : 1;
             }
-            if (!(that instanceof Node)) {
-                return false;
+            return this.names_[b].compareTo(this.names_[a]);
+        }
+
+        private void moved_(final int id) {
+            if (!this.moved_[id]) {
+                this.moved_[id] = true;
+                this.movedList_.add(id);
             }
-            return this.name_.equals(((Node) that).name_);
         }
 
-        @Override
-        public int hashCode() {
-            return this.name_.hashCode();
+        /**
+         * Return id of the node denoted by <code>name</code>, create the node
+         * if not found
+         */
+        private int node_(final String name) {
+            Integer id = this.ids_.get(name);
+            if (null != id) {
+                return id;
+            }
+            if (this.idsShared_) {
+                this.ids_ = new HashMap<String, Integer>(this.ids_);
+                this.idsShared_ = false;
+            }
+            if (this.size_ == this.names_.length) {
+                int n = this.size_ * 2;
+                this.names_ = Arrays.copyOf(this.names_, n);
+                this.dependOns_ = Arrays.copyOf(this.dependOns_, n);
+                this.dependents_ = Arrays.copyOf(this.dependents_, n);
+                this.closures_ = Arrays.copyOf(this.closures_, n);
+                this.levels_ = Arrays.copyOf(this.levels_, n);
+                this.marks_ = Arrays.copyOf(this.marks_, n);
+                this.moved_ = Arrays.copyOf(this.moved_, n);
+            }
+            int i = this.size_++;
+            this.names_[i] = name;
+            this.dependOns_[i] = NONE_;
+            this.dependents_[i] = NONE_;
+            this.closures_[i] = new int[] { i };
+            this.ids_.put(name, i);
+            if (DEFAULT.equals(name)) {
+                this.default_ = i;
+            }
+            this.moved_(i);
+            return i;
         }
 
-        @Override
-        public String toString() {
-            return this.name_;
+        /**
+         * Create a node denoted by <code>dependent</code> if not created yet,
+         * and make it depend on each one of <code>dependsOn</code>
+         */
+        private void addDependency_(final String dependent, final Collection<String> dependsOn) {
+            int a = this.node_(dependent);
+            for (String s : dependsOn) {
+                this.addEdge_(a, this.node_(s));
+            }
         }
 
-        public String debugString() {
-            String openTag = String.format("<node name='%1$s' weight='%2$s'>", this.name_,
-                    this.weight_);
-            String closeTag = "\n</node>";
-            StringBuilder sb = new StringBuilder();
-            sb.append(openTag);
-            for (Node n : this.dependOns_.values()) {
-                sb.append("\n\t").append(n.debugString());
+        /**
+         * Create a node denoted by <code>dependent</code> if not created yet,
+         * and record that it depends on each one of <code>dependsOn</code>.
+         * Recorded dependences take effect by {@link #load_()}
+         */
+        private void link_(final String dependent, final Collection<String> dependsOn) {
+            int a = this.node_(dependent);
+            for (String s : dependsOn) {
+                int b = this.node_(s);
+                if (a == b) {
+                    continue;
+                }
+                if (this.linkCount_ + 2 > this.links_.length) {
+                    this.links_ = Arrays.copyOf(this.links_, Math.max(64, this.links_.length * 2));
+                }
+                this.links_[this.linkCount_++] = a;
+                this.links_[this.linkCount_++] = b;
             }
-            sb.append(closeTag);
-            return sb.toString();
         }
 
-        public int compareTo(final Node o) {
-            if (null == o) {
-                return -1;
+        /**
+         * Load linked dependences into a graph built from scratch. A
+         * topological sort (Kahn) computes levels and then closures bottom up.
+         * If some nodes cannot be sorted, strongly connected components
+         * (Tarjan) among them are reported as circular dependences
+         * 
+         * @throws CircularDependenceException
+         *             reporting all cycles found
+         */
+        private void load_() {
+            final int n = this.size_;
+            // depend on lists, sorted and without duplicates
+            int[] degrees = new int[n];
+            for (int i = 0; i < this.linkCount_; i += 2) {
+                degrees[this.links_[i]]++;
             }
-            if (this.equals(o)) {
-                return 0;
+            for (int i = 0; i < n; ++i) {
+                this.dependOns_[i] = 0 == degrees[i] ? NONE_ : new int[degrees[i]];
+                degrees[i] = 0;
             }
-            if (this.weight_ == o.weight_) {
-                return o.name_.compareTo(this.name_);
-            } else {
-                long l = o.weight_ - this.weight_;
-                return (l > 0) ? 1 : ((l < 0) ? -1 : 0);
+            for (int i = 0; i < this.linkCount_; i += 2) {
+                int a = this.links_[i];
+                this.dependOns_[a][degrees[a]++] = this.links_[i + 1];
+            }
+            this.links_ = NONE_;
+            this.linkCount_ = 0;
+            int[] indegrees = new int[n];
+            for (int i = 0; i < n; ++i) {
+                int[] l = this.dependOns_[i];
+                if (l.length > 1) {
+                    Arrays.sort(l);
+                    int k = 1;
+                    for (int j = 1; j < l.length; ++j) {
+                        if (l[j] != l[k - 1]) {
+                            l[k++] = l[j];
+                        }
+                    }
+                    if (k < l.length) {
+                        this.dependOns_[i] = Arrays.copyOf(l, k);
+                    }
+                }
+                for (int c : this.dependOns_[i]) {
+                    indegrees[c]++;
+                }
+            }
+            for (int i = 0; i < n; ++i) {
+                this.dependents_[i] = 0 == indegrees[i] ? NONE_ : new int[indegrees[i]];
+                degrees[i] = 0;
+            }
+            for (int i = 0; i < n; ++i) {
+                for (int c : this.dependOns_[i]) {
+                    this.dependents_[c][degrees[c]++] = i;
+                }
+            }
+
+            // Kahn, from nodes nothing depends on
+            int[] sorted = new int[n];
+            int head = 0, tail = 0;
+            for (int i = 0; i < n; ++i) {
+                this.levels_[i] = 0;
+                if (0 == indegrees[i]) {
+                    sorted[tail++] = i;
+                }
+            }
+            while (head < tail) {
+                int x = sorted[head++];
+                int l = this.levels_[x] + 1;
+                for (int c : this.dependOns_[x]) {
+                    if (this.levels_[c] < l) {
+                        this.levels_[c] = l;
+                    }
+                    if (0 == --indegrees[c]) {
+                        sorted[tail++] = c;
+                    }
+                }
+            }
+            if (tail < n) {
+                throw new CircularDependenceException(this.cycles_(indegrees));
+            }
+
+            // closures, from nodes depending on nothing
+            int[] buf = new int[16];
+            for (int i = n - 1; i > -1; --i) {
+                int x = sorted[i];
+                int[] dependOns = this.dependOns_[x];
+                if (0 == dependOns.length) {
+                    this.closures_[x] = new int[] { x };
+                    continue;
+                }
+                if (1 == dependOns.length) {
+                    this.closures_[x] = union_(this.closures_[dependOns[0]], new int[] { x });
+                    continue;
+                }
+                final int stamp = ++this.stamp_;
+                int k = 0;
+                buf[k++] = x;
+                this.marks_[x] = stamp;
+                for (int c : dependOns) {
+                    for (int y : this.closures_[c]) {
+                        if (this.marks_[y] != stamp) {
+                            this.marks_[y] = stamp;
+                            if (k == buf.length) {
+                                buf = Arrays.copyOf(buf, k * 2);
+                            }
+                            buf[k++] = y;
+                        }
+                    }
+                }
+                int[] closure = Arrays.copyOf(buf, k);
+                Arrays.sort(closure);
+                this.closures_[x] = closure;
             }
         }
 
         /**
-         * Add a dependOn node
-         * 
-         * @param dependOn
+         * Complete a graph whose nodes, levels, depend on lists and closures
+         * have been read back, with dependent lists and the given order
          */
-        void addDependOn(final Node dependOn) {
-            // check for circular reference
-            if (dependOn.dependOn_(this)) {
-                throw new CircularDependenceException(this.name_, dependOn.name_);
+        private void restore_(final int[] order) {
+            final int n = this.size_;
+            int[] degrees = new int[n];
+            for (int i = 0; i < n; ++i) {
+                for (int c : this.dependOns_[i]) {
+                    degrees[c]++;
+                }
             }
-            this.dependOns_.put(dependOn.name_, dependOn);
-            this.dirty_ = true;
+            for (int i = 0; i < n; ++i) {
+                this.dependents_[i] = 0 == degrees[i] ? NONE_ : new int[degrees[i]];
+                degrees[i] = 0;
+            }
+            for (int i = 0; i < n; ++i) {
+                for (int c : this.dependOns_[i]) {
+                    this.dependents_[c][degrees[c]++] = i;
+                }
+            }
+            int[] ranks = new int[n];
+            for (int r = 0; r < n; ++r) {
+                ranks[order[r]] = r;
+            }
+            this.order_ = order;
+            this.ranks_ = ranks;
+            this.movedList_.clear();
+            Arrays.fill(this.moved_, false);
         }
 
         /**
-         * Return all depend on nodes of this node, including indirectly depend
-         * on nodes, i.e. the nodes depended on by the depend on node(s) of this
-         * node
-         * 
-         * the return set also include this node itself as this node depend on
-         * it self.
+         * Find circular dependences among nodes left by topological sort, i.e.
+         * those with positive <code>indegrees</code>
          * 
-         * @return
+         * @return one cycle for each strongly connected component
          */
-        Set<Node> allDependOns() {
-            Set<Node> all = new HashSet<Node>();
-            if (this.dirty_) {
-                if (!this.dependOns_.isEmpty()) {
-                    for (Node n0 : this.dependOns_.values()) {
-                        all.addAll(n0.allDependOns());
-                        all.add(n0);
+        private List<List<String>> cycles_(final int[] indegrees) {
+            final int n = this.size_;
+            List<List<String>> cycles = new ArrayList<List<String>>();
+            int[] index = new int[n];
+            int[] low = new int[n];
+            int[] component = new int[n];
+            int[] pos = new int[n];
+            boolean[] onStack = new boolean[n];
+            int[] stack = new int[n];
+            int[] calls = new int[n];
+            Arrays.fill(index, -1);
+            Arrays.fill(component, -1);
+            int next = 0, sp = 0, components = 0;
+            for (int s = 0; s < n; ++s) {
+                if (0 == indegrees[s] || -1 != index[s]) {
+                    continue;
+                }
+                int cp = 0;
+                calls[cp++] = s;
+                index[s] = low[s] = next++;
+                stack[sp++] = s;
+                onStack[s] = true;
+                while (cp > 0) {
+                    int v = calls[cp - 1];
+                    int[] dependOns = this.dependOns_[v];
+                    if (pos[v] < dependOns.length) {
+                        int w = dependOns[pos[v]++];
+                        if (0 == indegrees[w]) {
+                            continue;
+                        }
+                        if (-1 == index[w]) {
+                            index[w] = low[w] = next++;
+                            stack[sp++] = w;
+                            onStack[w] = true;
+                            calls[cp++] = w;
+                        } else if (onStack[w] && index[w] < low[v]) {
+                            low[v] = index[w];
+                        }
+                        continue;
+                    }
+                    --cp;
+                    if (cp > 0 && low[v] < low[calls[cp - 1]]) {
+                        low[calls[cp - 1]] = low[v];
+                    }
+                    if (low[v] == index[v]) {
+                        int size = 0;
+                        int w;
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            component[w] = components;
+                            ++size;
+                        } while (w != v);
+                        if (size > 1) {
+                            cycles.add(this.cycle_(v, component));
+                        }
+                        ++components;
                     }
                 }
-            } else {
-                all.addAll(this.dependOns_.values());
             }
-            all.add(this);
-            return all;
+            return cycles;
         }
 
         /**
-         * Flatten the dependence relationship and then recalculate weight of
-         * depend on nodes
+         * Find the shortest cycle from node <code>v</code> back to itself
+         * within the strongly connected component of <code>v</code>
          */
-        void rectify() {
-            this.flatten_();
-            this.updateDependOnWeights_();
-            this.dirty_ = false;
+        private List<String> cycle_(final int v, final int[] component) {
+            Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+            List<Integer> queue = new ArrayList<Integer>();
+            queue.add(v);
+            int last = -1;
+            for (int i = 0; i < queue.size() && -1 == last; ++i) {
+                int x = queue.get(i);
+                for (int c : this.dependOns_[x]) {
+                    if (c == v) {
+                        last = x;
+                        break;
+                    }
+                    if (component[c] == component[v] && !parents.containsKey(c)) {
+                        parents.put(c, x);
+                        queue.add(c);
+                    }
+                }
+            }
+            List<String> cycle = new ArrayList<String>();
+            cycle.add(this.names_[v]);
+            for (int x = last; x != v; x = parents.get(x)) {
+                cycle.add(1, this.names_[x]);
+            }
+            cycle.add(this.names_[v]);
+            return cycle;
         }
 
         /**
-         * Turn indirect dependencies into direct dependencies
+         * Make node <code>a</code> depend on node <code>b</code>
+         * 
+         * @throws CircularDependenceException
+         *             if <code>b</code> depends on <code>a</code>
          */
-        private void flatten_() {
-            for (Node n0 : this.dependOns_.values()) {
-                n0.flatten_();
+        private void addEdge_(final int a, final int b) {
+            if (contains_(this.closures_[a], b)) {
+                return; // already depends on b, directly or not
+            }
+            if (contains_(this.closures_[b], a)) {
+                throw new CircularDependenceException(this.names_[a], this.names_[b]);
+            }
+            this.dependOns_[a] = append_(this.dependOns_[a], b);
+            this.dependents_[b] = append_(this.dependents_[b], a);
+
+            // a and its ancestors get the closure of b. Any ancestor that
+            // depends on b already has it, and so do the ancestors of that one
+            final int[] closure = this.closures_[b];
+            final int stamp = ++this.stamp_;
+            int[] stack = new int[16];
+            int top = 0;
+            stack[top++] = a;
+            this.marks_[a] = stamp;
+            while (top > 0) {
+                int x = stack[--top];
+                this.closures_[x] = union_(this.closures_[x], closure);
+                for (int p : this.dependents_[x]) {
+                    if (this.marks_[p] != stamp && !contains_(this.closures_[p], b)) {
+                        this.marks_[p] = stamp;
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = p;
+                    }
+                }
             }
-            for (Node n0 : new HashSet<Node>(this.dependOns_.values())) {
-                this.dependOns_.putAll(n0.dependOns_);
+
+            // b and its descendants might go deeper. Levels strictly increase
+            // along edges, so visiting the closure of b by level is a
+            // topological order of it
+            final int level = this.levels_[a] + 1;
+            if (this.levels_[b] < level) {
+                long[] keys = new long[closure.length];
+                for (int i = 0; i < closure.length; ++i) {
+                    keys[i] = ((long) this.levels_[closure[i]] << 32) | closure[i];
+                }
+                Arrays.sort(keys);
+                this.levels_[b] = level;
+                this.moved_(b);
+                for (long key : keys) {
+                    int x = (int) key;
+                    int l = this.levels_[x] + 1;
+                    for (int c : this.dependOns_[x]) {
+                        if (this.levels_[c] < l) {
+                            this.levels_[c] = l;
+                            this.moved_(c);
+                        }
+                    }
+                }
             }
         }
 
         /**
-         * update weights of depend on nodes based on the weight of this node
+         * Test whether node <code>dependent</code> depends on node
+         * <code>dependOn</code>, directly or indirectly
          */
-        void updateDependOnWeights_() {
-            this.incWeightOn_(null);
+        private boolean dependOn_(final String dependent, final String dependOn) {
+            Integer a = this.ids_.get(dependent);
+            Integer b = this.ids_.get(dependOn);
+            return null != a && null != b && contains_(this.closures_[a], b);
         }
 
-        private void incWeightOn_(final Node node) {
-            if (null != node && this.weight_ <= node.weight_) {
-                this.weight_ = node.weight_ + STEP_;
-            }
-            for (Node dependOn : this.dependOns_.values()) {
-                dependOn.incWeightOn_(this);
+        /**
+         * @return number of long words needed by a bit set of all ranks
+         */
+        private int words_() {
+            return (this.size_ + 63) >>> 6;
+        }
+
+        /**
+         * Set the ranks of the closure of node <code>id</code> into bit set
+         * <code>bits</code>
+         */
+        private void select_(final int id, final long[] bits) {
+            for (int c : this.closures_[id]) {
+                int r = this.ranks_[c];
+                bits[r >>> 6] |= 1L << r;
             }
         }
 
         /**
-         * Test whether a given node is depend on node of this node
-         * 
-         * @param node
-         * @return
+         * Add names of all nodes whose rank is set in <code>bits</code> to
+         * <code>names</code> by rank order
          */
-        private boolean dependOn_(final Node node) {
-            if (this.dependOns_.containsKey(node.name_)) {
-                return true;
+        private void collect_(final long[] bits, final List<String> names) {
+            for (int i = 0; i < bits.length; ++i) {
+                long w = bits[i];
+                while (0 != w) {
+                    names.add(this.names_[this.order_[(i << 6) + Long.numberOfTrailingZeros(w)]]);
+                    w &= w - 1;
+                }
             }
-            if (this.dirty_) {
-                for (Node n0 : this.dependOns_.values()) {
-                    if (n0.dependOn_(node)) {
-                        return true;
-                    }
+        }
+
+        private String debugString_(final int id) {
+            String openTag = "<node name='%1$s' weight='%2$s'>";
+            String closeTag = "\n</node>";
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(openTag, this.names_[id], 1 + STEP_ * this.levels_[id]));
+            for (int c : this.closures_[id]) {
+                if (c != id) {
+                    sb.append("\n\t")
+                            .append(String.format(openTag, this.names_[c], 1 + STEP_ * this.levels_[c]))
+                            .append(closeTag);
                 }
             }
-            return false;
+            sb.append(closeTag);
+            return sb.toString();
+        }
+
+        private static boolean contains_(final int[] sorted, final int x) {
+            return Arrays.binarySearch(sorted, x) > -1;
         }
 
+        private static int[] append_(final int[] a, final int x) {
+            int[] b = Arrays.copyOf(a, a.length + 1);
+            b[a.length] = x;
+            return b;
+        }
+
+        /**
+         * Merge two sorted arrays
+         */
+        private static int[] union_(final int[] a, final int[] b) {
+            int[] c = new int[a.length + b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    c[k++] = a[i++];
+                } else if (a[i] > b[j]) {
+                    c[k++] = b[j++];
+                } else {
+                    c[k++] = a[i++];
+                    ++j;
+                }
+            }
+            while (i < a.length) {
+                c[k++] = a[i++];
+            }
+            while (j < b.length) {
+                c[k++] = b[j++];
+            }
+            return k == a.length ? a : Arrays.copyOf(c, k);
+        }
     }
 }
@@ -0,0 +1,71 @@
+package com.greenscriptool;
+
+import java.util.List;
+
+/**
+ * Receives the time spent by a {@link Minimizer} in each stage of processing
+ * resources, see {@link Minimizer#addBuildListener(IBuildListener)}.
+ * Listeners are called on the thread doing the work, thus must be thread
+ * safe and fast.
+ *
+ * @since 1.2.9
+ */
+public interface IBuildListener {
+
+    /**
+     * Stages of processing a resource
+     */
+    enum Stage {
+        /**
+         * read a file
+         */
+        READ,
+        /**
+         * compile LESS
+         */
+        LESS,
+        /**
+         * compile CoffeeScript
+         */
+        COFFEE,
+        /**
+         * rewrite relative urls in css
+         */
+        RELATIVE_URL,
+        /**
+         * compress
+         */
+        COMPRESS,
+        /**
+         * write content to a bundle, or a bundle to its cache
+         */
+        WRITE
+    }
+
+    /**
+     * Called when a stage completes
+     *
+     * @param stage
+     * @param bundle
+     *            the key of the bundle being built, or <code>null</code> if
+     *            processing a single file or inline content
+     * @param file
+     *            the path of the file processed, or <code>null</code> if the
+     *            stage did not work on a single file
+     * @param nanos
+     *            time spent
+     */
+    void onStage(Stage stage, String bundle, String file, long nanos);
+
+    /**
+     * Called when a bundle is built
+     *
+     * @param bundle
+     *            the bundle key
+     * @param resourceNames
+     *            the resources in the bundle
+     * @param nanos
+     *            time spent building the bundle, all stages included
+     */
+    void onBuild(String bundle, List<String> resourceNames, long nanos);
+}
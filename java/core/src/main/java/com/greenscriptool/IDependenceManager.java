@@ -2,6 +2,7 @@ package com.greenscriptool;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Define a dependency manager interface.
@@ -84,6 +85,9 @@ public interface IDependenceManager {
      * will be put at the end of the returned list, following their
      * original order. Again duplicated items will be removed
      * 
+     * <p>The returned list might be shared between calls and shall not be
+     * modified
+     * 
      * @param resourceNames a collection of resource names
      * @param withDefault indicate whether add {@link #DEFAULT} resource and
      *        it's depend on resources into the comprehended list
@@ -149,6 +153,31 @@ public interface IDependenceManager {
      */
     void addDependency(String dependent, Collection<String> dependsOn);
     
+    /**
+     * <p>Add a batch of dependence relationships, see
+     * {@link #addDependency(String, Collection)}.
+     * 
+     * <p>The relationships are applied all together: no reader would ever
+     * see part of the batch applied. If any of them leads to a circular
+     * dependence then none is applied
+     * 
+     * @param dependencies map from dependent resource names to the list of
+     *        resource names they depend on
+     * @throws CircularDependenceException
+     */
+    void addDependencies(Map<String, ? extends Collection<String>> dependencies);
+
+    /**
+     * Return a number identifying the current dependence relationships. It
+     * changes whenever the relationships change, and is never shared by two
+     * dependence managers, so that results derived from
+     * {@link #comprehend(Collection, boolean)} can be cached against it
+     *
+     * @return the version of the dependence relationships
+     * @since 1.2.9
+     */
+    long getVersion();
+    
     /**
      * <p>Process inline dependency relationship.
      * 
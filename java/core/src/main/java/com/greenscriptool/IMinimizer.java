@@ -104,6 +104,25 @@ public interface IMinimizer extends IProcessor {
      * @param b
      */
     void enableDisableProcessInline(boolean b);
+
+    /**
+     * <p>Enable or disable saving inline code into resources served from
+     * the cache url path, see {@link #externalizeInline(String)}</p>
+     *
+     * @param b
+     * @since 1.2.9
+     */
+    void enableDisableExternalizeInline(boolean b);
+
+    /**
+     * <p>Set the minimum length of inline code to be saved into a resource
+     * when externalizing inline code is enabled. Shorter code stays inline
+     * as it is not worth an extra request</p>
+     *
+     * @param length
+     * @since 1.2.9
+     */
+    void setExternalizeInlineThreshold(int length);
     
     /**
      * Return <code>minimize</code> setting
@@ -195,6 +214,27 @@ public interface IMinimizer extends IProcessor {
      * A management interface to notify miminizer to clear cached processed resources. 
      */
     void clearCache();
+
+    /**
+     * Return a number identifying the current processing results. It changes
+     * whenever the cache is cleared or cached content gets out of date, and is
+     * never shared by two minimizers, so that results derived from
+     * {@link #process(List)} can be cached against it
+     *
+     * @return the version of the processing results
+     * @since 1.2.9
+     */
+    long getVersion();
+
+    /**
+     * Return the time the current thread has spent building bundles with
+     * this minimizer. The difference between two calls is the cost of the
+     * builds triggered in between
+     *
+     * @return nanoseconds
+     * @since 1.2.9
+     */
+    long getThreadBuildNanos();
     
     /**
      * Get last-modified timestamp of the resource specified and all imported resources
@@ -256,6 +296,19 @@ public interface IMinimizer extends IProcessor {
      * @since 1.2.6
      */
     String processInline(String text);
+
+    /**
+     * <p>Save processed inline text into a resource named after the hash of
+     * the text, so that browsers can cache it</p>
+     *
+     * @param text
+     *            the text returned by {@link #processInline(String)}
+     * @return the url of the resource, or <code>null</code> if externalizing
+     *         inline code is disabled or the text is shorter than the
+     *         threshold
+     * @since 1.2.9
+     */
+    String externalizeInline(String text);
     
     /**
      * <p>process static content</p>
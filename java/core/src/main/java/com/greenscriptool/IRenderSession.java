@@ -105,6 +105,30 @@ public interface IRenderSession {
      * @return
      */
     String outputInline();
+
+    /**
+     * Save inline contents returned by {@link #outputInline()} into a
+     * resource, if the minimizer is configured to do so, see
+     * {@link IMinimizer#externalizeInline(String)}
+     *
+     * @param inline
+     *            the inline contents
+     * @return the url of the resource, or <code>null</code> if the contents
+     *         shall be output inline
+     * @since 1.2.9
+     */
+    String externalizeInline(String inline);
+
+    /**
+     * Return the attribute to output along with a url returned by
+     * {@link #output(String, boolean, boolean, String, String)}, e.g.
+     * "async" or "defer" for javascript
+     *
+     * @param url
+     * @return the attribute or <code>null</code> if there is none
+     * @since 1.2.9
+     */
+    String getAttribute(String url);
     
     /**
      * Return all medias declared as long as browser specified. 
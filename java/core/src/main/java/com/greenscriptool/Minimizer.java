@@ -3,6 +3,7 @@ package com.greenscriptool;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
@@ -11,15 +12,20 @@ import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,6 +45,9 @@ import com.greenscriptool.utils.FileCache;
 import com.greenscriptool.utils.FileResource;
 import com.greenscriptool.utils.IBufferLocator;
 import com.greenscriptool.utils.ICompressor;
+import com.greenscriptool.utils.IndexedFileLocator;
+import com.greenscriptool.utils.LRUCache;
+import com.greenscriptool.utils.ResourceCatalog;
 import com.greenscriptool.utils.YUICompressor;
 
 public class Minimizer implements IMinimizer {
@@ -50,6 +59,8 @@ public class Minimizer implements IMinimizer {
     private boolean useCache_;
     private boolean inMemory_;
     private boolean processInline_;
+    private boolean externalizeInline_;
+    private int externalizeInlineThreshold_ = DEF_EXTERNALIZE_INLINE_THRESHOLD;
 
     private FileCache cache_ = null;
     private String resourcePath_ = null;
@@ -94,7 +105,7 @@ public class Minimizer implements IMinimizer {
         if (logger_.isDebugEnabled()) {
             logger_.debug("minimize " + (enable ? "enabled" : "disabled"));
         }
-        this.clearCache();
+        this.clearCache_("minimize " + (enable ? "enabled" : "disabled"));
     }
 
     @Override
@@ -103,7 +114,7 @@ public class Minimizer implements IMinimizer {
         if (logger_.isDebugEnabled()) {
             logger_.debug("compress " + (enable ? "enabled" : "disabled"));
         }
-        this.clearCache();
+        this.clearCache_("compress " + (enable ? "enabled" : "disabled"));
     }
 
     @Override
@@ -112,7 +123,7 @@ public class Minimizer implements IMinimizer {
         if (logger_.isDebugEnabled()) {
             logger_.debug("cache " + (enable ? "enabled" : "disabled"));
         }
-        this.clearCache();
+        this.clearCache_("cache " + (enable ? "enabled" : "disabled"));
     }
 
     @Override
@@ -121,7 +132,7 @@ public class Minimizer implements IMinimizer {
         if (logger_.isDebugEnabled()) {
             logger_.debug("in memory cache " + (enable ? "enabled" : "disabled"));
         }
-        this.clearCache();
+        this.clearCache_("in memory cache " + (enable ? "enabled" : "disabled"));
     }
 
     @Override
@@ -132,6 +143,24 @@ public class Minimizer implements IMinimizer {
         }
     }
 
+    @Override
+    public void enableDisableExternalizeInline(final boolean enable) {
+        this.externalizeInline_ = enable;
+        if (logger_.isDebugEnabled()) {
+            logger_.debug("inline externalizing " + (enable ? "enabled" : "disabled"));
+        }
+    }
+
+    /**
+     * Default minimum length of inline code to be externalized
+     */
+    public static final int DEF_EXTERNALIZE_INLINE_THRESHOLD = 1024;
+
+    @Override
+    public void setExternalizeInlineThreshold(final int length) {
+        this.externalizeInlineThreshold_ = length;
+    }
+
     @Deprecated
     public void enableDisableVerifyResource(final boolean verify) {
         // verifyResource_ = verify;
@@ -271,11 +300,52 @@ public class Minimizer implements IMinimizer {
         }
     }
 
+    /*
+     * versions handed out to all minimizers, see getVersion()
+     */
+    private static final AtomicLong versions_ = new AtomicLong();
+
+    private volatile long version_ = versions_.incrementAndGet();
+
+    @Override
+    public long getVersion() {
+        return this.version_;
+    }
+
+    private final ThreadLocal<long[]> threadBuildNanos_ = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    @Override
+    public long getThreadBuildNanos() {
+        return this.threadBuildNanos_.get()[0];
+    }
+
     @Override
     public void clearCache() {
+        this.clearCache_("clearCache()");
+    }
+
+    /*
+     * the cause is recorded against the resource lists processed so far, as
+     * the trigger of their next build
+     */
+    private void clearCache_(final String cause) {
+        Miss miss = new Miss(RebuildLog.Reason.CLEARED, cause);
+        for (List<String> l : this.processCache_.keys()) {
+            this.misses_.put(l, miss);
+        }
         this.cache_.clear();
         this.processCache2_.clear();
         this.processCache_.clear();
+        this.inlineCache_.clear();
+        this.inlineUrls_.clear();
+        this.staticCache_.clear();
+        this.catalog_ = null;
+        this.version_ = versions_.incrementAndGet();
     }
 
     private IFileLocator fl_ = FileResource.defFileLocator;
@@ -309,7 +379,7 @@ public class Minimizer implements IMinimizer {
     }
 
     private static final Pattern P_IMPORT = Pattern.compile("^\\s*@import\\s*\"(.*?)\".*");
-    private Map<String, Set<File>> importsCache_ = new HashMap<String, Set<File>>();
+    private Map<String, Set<File>> importsCache_ = new ConcurrentHashMap<String, Set<File>>();
 
     private Set<File> imports_(final File file) {
         String key = "less_imports_" + file.getPath() + file.lastModified();
@@ -333,6 +403,7 @@ public class Minimizer implements IMinimizer {
                             "Error occurred getting @imports from resource: $s", file), e);
                 }
             }
+            this.importsCache_.put(key, files);
         }
         return files;
     }
@@ -351,7 +422,7 @@ public class Minimizer implements IMinimizer {
 
     @Override
     public void checkCache() {
-        for (List<String> l : this.processCache_.keySet()) {
+        for (List<String> l : this.processCache_.keys()) {
             for (String s : l) {
                 if (this.isCDN_(s)) {
                     continue;
@@ -362,6 +433,8 @@ public class Minimizer implements IMinimizer {
                     long ts2 = this.lastModifiedCache_.get(f);
                     if (ts1 > ts2) {
                         this.processCache_.remove(l);
+                        this.misses_.put(l, new Miss(RebuildLog.Reason.MODIFIED, f.getPath()));
+                        this.version_ = versions_.incrementAndGet();
                         break;
                     }
                 }
@@ -369,7 +442,46 @@ public class Minimizer implements IMinimizer {
         }
     }
 
-    private ConcurrentMap<List<String>, List<String>> processCache_ = new ConcurrentHashMap<List<String>, List<String>>();
+    /**
+     * Default maximum number of resource lists kept in each of the process
+     * caches
+     */
+    public static final int DEF_PROCESS_CACHE_SIZE = 1000;
+
+    private LRUCache<List<String>, List<String>> processCache_ = new LRUCache<List<String>, List<String>>(
+            DEF_PROCESS_CACHE_SIZE);
+
+    /**
+     * Set the maximum number of resource lists kept by the process caches.
+     * Least recently used entries are evicted once the limit is reached
+     * 
+     * @param size
+     */
+    public void setProcessCacheSize(final int size) {
+        this.processCache_.setCapacity(size);
+        this.misses_.setCapacity(size);
+        this.processCache2_.setCapacity(size);
+        this.staticCache_.setCapacity(size);
+    }
+
+    /**
+     * Return statistics of the cache used by {@link #process(List)}
+     * 
+     * @return
+     */
+    public LRUCache.Stats getProcessCacheStats() {
+        return this.processCache_.getStats();
+    }
+
+    /**
+     * Return statistics of the cache used by
+     * {@link #processWithoutMinimize(List)}
+     * 
+     * @return
+     */
+    public LRUCache.Stats getProcessWithoutMinimizeCacheStats() {
+        return this.processCache2_.getStats();
+    }
 
     /**
      * A convention used by this minimizer is resource name suffix with
@@ -382,13 +494,19 @@ public class Minimizer implements IMinimizer {
             return Collections.emptyList();
         }
         if (this.minimize_ || ResourceType.CSS == this.type_) {
-            if (this.useCache_ && this.processCache_.containsKey(resourceNames)) {
+            if (this.useCache_) {
                 // !!! cache of the return list instead of minimized file
                 List<String> l = this.processCache_.get(resourceNames);
                 if (null != l) {
                     return new ArrayList<String>(l);
                 }
             }
+            Miss miss = this.misses_.remove(resourceNames);
+            if (!this.useCache_) {
+                miss = CACHE_DISABLED_;
+            } else if (null == miss) {
+                miss = NEW_;
+            }
             // CDN items will break the resource name list into
             // separate chunks in order to keep the dependency order
             List<String> retLst = new ArrayList<String>();
@@ -398,14 +516,14 @@ public class Minimizer implements IMinimizer {
                     tmpLst.add(fn);
                 } else {
                     if (tmpLst.size() > 0) {
-                        retLst.add(this.minimize_(tmpLst));
+                        retLst.add(this.minimize_(tmpLst, miss));
                         tmpLst.clear();
                     }
                     retLst.add(fn);
                 }
             }
             if (tmpLst.size() > 0) {
-                retLst.add(this.minimize_(tmpLst));
+                retLst.add(this.minimize_(tmpLst, miss));
                 tmpLst.clear();
             }
 
@@ -423,7 +541,8 @@ public class Minimizer implements IMinimizer {
         return -1 == pos ? "" : path.substring(pos, path.length());
     }
 
-    private ConcurrentMap<List<String>, List<String>> processCache2_ = new ConcurrentHashMap<List<String>, List<String>>();
+    private LRUCache<List<String>, List<String>> processCache2_ = new LRUCache<List<String>, List<String>>(
+            DEF_PROCESS_CACHE_SIZE);
 
     @Override
     public List<String> processWithoutMinimize(final List<String> resourceNames) {
@@ -431,7 +550,7 @@ public class Minimizer implements IMinimizer {
         if (resourceNames.isEmpty()) {
             return Collections.emptyList();
         }
-        if (this.useCache_ && this.processCache2_.containsKey(resourceNames)) {
+        if (this.useCache_) {
             // !!! cache of the return list instead of minimized file
             List<String> l = this.processCache2_.get(resourceNames);
             if (null != l) {
@@ -470,53 +589,169 @@ public class Minimizer implements IMinimizer {
     }
 
     private String compress(final String content) {
+        long start = System.nanoTime();
         try {
             Reader r = new StringReader(content);
             StringWriter w = new StringWriter();
             this.compressor_.compress(r, w);
-            return w.toString();
+            String s = w.toString();
+            this.metrics_.recordCompression(content.length(), s.length());
+            return s;
         } catch (Exception e) {
             logger_.warn("error compress resource", e);
             return content;
+        } finally {
+            this.stage_(IBuildListener.Stage.COMPRESS, start);
         }
     }
 
     private void compress(final File file, final Writer out) {
+        long start = System.nanoTime();
         try {
             Reader r = new BufferedReader(new FileReader(file));
+            CountingWriter w = new CountingWriter(out);
             try {
-                this.compressor_.compress(r, out);
+                this.compressor_.compress(r, w);
+                this.metrics_.recordCompression(file.length(), w.count);
             } catch (Exception e) {
                 logger_.warn("error compress resource " + file.getPath(), e);
                 copy_(file, out);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            this.stage_(IBuildListener.Stage.COMPRESS, start);
         }
     }
 
     private void compress(final String content, final Writer out) {
+        long start = System.nanoTime();
         Reader r = new StringReader(content);
+        CountingWriter w = new CountingWriter(out);
         try {
-            this.compressor_.compress(r, out);
+            this.compressor_.compress(r, w);
+            this.metrics_.recordCompression(content.length(), w.count);
         } catch (Exception e) {
             logger_.warn("error compress resource", e);
             copy_(content, out);
+        } finally {
+            this.stage_(IBuildListener.Stage.COMPRESS, start);
+        }
+    }
+
+    /*
+     * counts characters written through it, without closing the underlying
+     * writer
+     */
+    private static final class CountingWriter extends FilterWriter {
+        long count;
+
+        CountingWriter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            this.out.write(c);
+            ++this.count;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            this.out.write(cbuf, off, len);
+            this.count += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            this.out.write(str, off, len);
+            this.count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.flush();
+        }
+    }
+
+    private final MinimizerMetrics metrics_ = new MinimizerMetrics();
+
+    /**
+     * Return the counters and timers of this minimizer
+     * 
+     * @return
+     */
+    public MinimizerMetrics getMetrics() {
+        return this.metrics_;
+    }
+
+    /**
+     * Return an estimate of the memory, in bytes, held by the processed text
+     * kept in the inline and static caches
+     * 
+     * @return
+     */
+    public long getCachedTextSize() {
+        long n = 0;
+        for (String s : this.inlineCache_.values()) {
+            n += s.length();
+        }
+        for (String s : this.staticCache_.values()) {
+            n += s.length();
         }
+        return n * 2;
+    }
+
+    /**
+     * Default maximum number of processed inline contents kept in memory
+     */
+    public static final int DEF_INLINE_CACHE_SIZE = 200;
+
+    private static final Charset UTF8_ = Charset.forName("UTF-8");
+
+    /*
+     * processed inline content indexed by the hash of the raw content
+     */
+    private LRUCache<UUID, String> inlineCache_ = new LRUCache<UUID, String>(
+            DEF_INLINE_CACHE_SIZE);
+
+    /**
+     * Set the maximum number of processed inline contents, and of urls of
+     * externalized inline contents, kept in memory
+     * 
+     * @param size
+     */
+    public void setInlineCacheSize(final int size) {
+        this.inlineCache_.setCapacity(size);
+        this.inlineUrls_.setCapacity(size);
+    }
+
+    /**
+     * Return statistics of the cache used by {@link #processInline(String)}
+     * 
+     * @return
+     */
+    public LRUCache.Stats getInlineCacheStats() {
+        return this.inlineCache_.getStats();
     }
 
     @Override
     public String processInline(String content) {
-        if (!this.processInline_) {
+        if (!this.processInline_ || content.length() == 0) {
             return content;
         }
+        UUID key = UUID.nameUUIDFromBytes(content.getBytes(UTF8_));
+        String processed = this.inlineCache_.get(key);
+        if (null != processed) {
+            return processed;
+        }
         try {
-            content = this.preprocess_(content);
+            processed = this.preprocess_(content);
             if (this.compress_) {
-                return this.compress(content);
-            } else {
-                return content;
+                processed = this.compress(processed);
             }
+            this.inlineCache_.put(key, processed);
+            return processed;
         } catch (StackOverflowError e) {
             logger_.error("fatal error compressing inline content:" + e.getMessage());
             return content;
@@ -526,32 +761,176 @@ public class Minimizer implements IMinimizer {
         }
     }
 
+    /*
+     * names of the files or buffers externalized inline content was written
+     * to, indexed by the hash of the content
+     */
+    private LRUCache<UUID, String> inlineUrls_ = new LRUCache<UUID, String>(
+            DEF_INLINE_CACHE_SIZE);
+
+    @Override
+    public String externalizeInline(final String text) {
+        if (!this.externalizeInline_ || text.length() < this.externalizeInlineThreshold_) {
+            return null;
+        }
+        this.checkInitialize_(true);
+        UUID key = UUID.nameUUIDFromBytes(text.getBytes(UTF8_));
+        List<String> l = Collections.singletonList(key.toString());
+        String fn = this.inlineUrls_.get(key);
+        if (null != fn) {
+            // the buffer might have been evicted from the cache, or the file
+            // deleted, since: write it again under the same name
+            if (this.inMemory_ ? null != this.bl_.locate(fn) : null != this.cache_.get(l)) {
+                return this.cacheUrlPath_ + fn;
+            }
+        }
+        IResource rsrc = this.newCache_(l);
+        Writer out = rsrc.getWriter();
+        try {
+            copy_(text, out);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger_.warn("cannot close output in minimizor", e);
+            }
+        }
+        fn = rsrc.getKey();
+        if (!this.inMemory_) {
+            // so that clearCache() removes the file
+            this.cache_.put(l, fn);
+        }
+        this.inlineUrls_.put(key, fn);
+        return this.cacheUrlPath_ + fn;
+    }
+
+    /*
+     * processed static files, see processStatic(File)
+     */
+    private LRUCache<StaticKey, String> staticCache_ = new LRUCache<StaticKey, String>(
+            DEF_PROCESS_CACHE_SIZE);
+
+    /**
+     * Return statistics of the cache used by {@link #processStatic(File)}
+     * 
+     * @return
+     */
+    public LRUCache.Stats getStaticCacheStats() {
+        return this.staticCache_.getStats();
+    }
+
+    /*
+     * identifies the output of processStatic(File): the file, its content as
+     * far as it can be told without reading it, and the settings applied
+     */
+    private static final class StaticKey {
+        private final File file_;
+        private final long lastModified_;
+        private final long length_;
+        private final int settings_;
+
+        StaticKey(final File file, final long lastModified, final int settings) {
+            this.file_ = file;
+            this.lastModified_ = lastModified;
+            this.length_ = file.length();
+            this.settings_ = settings;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof StaticKey)) {
+                return false;
+            }
+            StaticKey that = (StaticKey) obj;
+            return this.lastModified_ == that.lastModified_ && this.length_ == that.length_
+                    && this.settings_ == that.settings_ && this.file_.equals(that.file_);
+        }
+
+        @Override
+        public int hashCode() {
+            int ret = 17;
+            ret = ret * 31 + this.file_.hashCode();
+            ret = ret * 31 + (int) (this.lastModified_ ^ (this.lastModified_ >>> 32));
+            ret = ret * 31 + (int) (this.length_ ^ (this.length_ >>> 32));
+            ret = ret * 31 + this.settings_;
+            return ret;
+        }
+    }
+
+    private int staticSettings_() {
+        int settings = 0;
+        if (this.compress_) {
+            settings |= 1;
+        }
+        if (this.lessEnabled_()) {
+            settings |= 2;
+        }
+        if (this.postMergeLessCompile_()) {
+            settings |= 4;
+        }
+        return settings;
+    }
+
+    /**
+     * Output of a file is cached until the file (or any file it
+     * <code>@import</code>s) changes, or the settings it was processed with
+     * change
+     */
     @Override
     public String processStatic(final File file) {
+        StaticKey key = new StaticKey(file, this.getLastModified(file), this.staticSettings_());
+        String processed = this.staticCache_.get(key);
+        if (null != processed) {
+            return processed;
+        }
+        Build b = new Build(null);
+        b.file = file.getPath();
+        this.build_.set(b);
+        try {
+            processed = this.processStatic_(file);
+        } finally {
+            this.build_.remove();
+        }
+        if (null != processed) {
+            this.staticCache_.put(key, processed);
+            return processed;
+        }
+        return "";
+    }
+
+    /*
+     * return null if the file cannot be read
+     */
+    private String processStatic_(final File file) {
+        String processed = null;
         String content = null;
         try {
             content = this.preprocess_(file);
         } catch (IOException e2) {
             logger_.error("error preprocess static file: " + file.getPath());
-            return "";
+            return null;
         }
         try {
             if (this.compress_) {
-                return this.compress(content);
+                processed = this.compress(content);
             } else {
-                return content;
+                processed = content;
             }
         } catch (StackOverflowError e) {
             logger_.error("fatal error compressing static file: " + file.getName());
-            return content;
+            processed = content;
         } catch (Exception e) {
             logger_.warn("error processing static file: " + file.getPath(), e);
             try {
-                return this.fileToString_(file);
+                processed = this.fileToString_(file);
             } catch (IOException e1) {
-                return "";
+                return null;
             }
         }
+        return processed;
     }
 
     private static String dos2unix_(final String s) {
@@ -559,27 +938,53 @@ public class Minimizer implements IMinimizer {
     }
 
     private String compileLess_(final String s) throws LessException {
-        return this.less_.compile(dos2unix_(s)).replace("\\n", "\n");
+        long start = System.nanoTime();
+        try {
+            return this.less_.compile(dos2unix_(s)).replace("\\n", "\n");
+        } finally {
+            this.stage_(IBuildListener.Stage.LESS, start);
+        }
     }
 
     private String compileLess_(final File f) throws LessException {
-        return this.less_.compile(f).replace("\\n", "\n");
+        long start = System.nanoTime();
+        try {
+            return this.less_.compile(f).replace("\\n", "\n");
+        } finally {
+            this.stage_(IBuildListener.Stage.LESS, start);
+        }
     }
 
     private String compileCoffee_(final String s) throws JCoffeeScriptCompileException {
-        return this.coffee_.compile(s);
+        long start = System.nanoTime();
+        try {
+            return this.coffee_.compile(s);
+        } finally {
+            this.stage_(IBuildListener.Stage.COFFEE, start);
+        }
     }
 
     private String compileCoffee_(final File f) throws JCoffeeScriptCompileException, IOException {
         return this.compileCoffee_(this.fileToString_(f));
     }
 
+    /**
+     * Minimize the resources listed in the resources parameter of a bundle
+     * url, see {@link #setResourcesParam(String)}
+     * 
+     * @return the bundle, or <code>null</code> if the list was encoded by a
+     *         node with different resources
+     */
     public IResource minimize(final String resourceNames) {
-        return this.minimize(this.decodeResourceNames(resourceNames));
+        List<String> l = this.decodeResourceNames(resourceNames);
+        return null == l ? null : this.minimize(l, ON_DEMAND_);
     }
 
-    private IResource minimize(final List<String> resourceNames) {
+    private IResource minimize(final List<String> resourceNames, final Miss miss) {
+        long start = System.nanoTime();
         IResource rsrc = this.newCache_(resourceNames);
+        Build b = new Build(rsrc.getKey());
+        this.build_.set(b);
         Writer out = rsrc.getWriter();
         StringWriter sw = new StringWriter();
         try {
@@ -592,7 +997,15 @@ public class Minimizer implements IMinimizer {
 
                 File f = this.getFileFromURL_(s);
                 if (null != f && f.exists()) {
+                    b.file = f.getPath();
+                    long t = System.nanoTime();
                     this.merge_(f, sw, s);
+                    t = System.nanoTime() - t;
+                    if (t > b.slowestNanos) {
+                        b.slowestNanos = t;
+                        b.slowestFile = b.file;
+                    }
+                    b.file = null;
                 } else {
                     // possibly a pseudo or error resource name
                 }
@@ -611,40 +1024,180 @@ public class Minimizer implements IMinimizer {
                         logger_.error("fatal error compressing resource: " + e.getMessage());
                     }
                 } else {
-                    copy_(s, out);
+                    this.write_(s, out);
                 }
             } else {
-                copy_(s, out);
+                this.write_(s, out);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
         } finally {
             if (null != out) {
+                long t = System.nanoTime();
                 try {
                     out.close();
                 } catch (IOException e) {
                     logger_.warn("cannot close output in minimizor", e);
                 }
+                this.stage_(IBuildListener.Stage.WRITE, t);
             }
+            this.build_.remove();
+            this.rebuilds_.record(miss.reason, miss.trigger, b.bundle, resourceNames);
+            this.built_(b, resourceNames, System.nanoTime() - start);
         }
 
         return rsrc;
     }
 
-    private String minimize_(final List<String> resourceNames) {
+    private void write_(final String s, final Writer out) {
+        long start = System.nanoTime();
+        copy_(s, out);
+        this.stage_(IBuildListener.Stage.WRITE, start);
+    }
+
+    /*
+     * the bundle or file being processed by the current thread, and the time
+     * spent in each stage so far
+     */
+    private static final class Build {
+        final String bundle;
+        String file;
+        final long[] nanos = new long[IBuildListener.Stage.values().length];
+        String slowestFile;
+        long slowestNanos;
+
+        Build(final String bundle) {
+            this.bundle = bundle;
+        }
+    }
+
+    private final ThreadLocal<Build> build_ = new ThreadLocal<Build>();
+
+    /*
+     * why a resource list is about to be built, and what triggered it
+     */
+    private static final class Miss {
+        final RebuildLog.Reason reason;
+        final String trigger;
+
+        Miss(final RebuildLog.Reason reason, final String trigger) {
+            this.reason = reason;
+            this.trigger = trigger;
+        }
+    }
+
+    private static final Miss NEW_ = new Miss(RebuildLog.Reason.NEW, null);
+    private static final Miss CACHE_DISABLED_ = new Miss(RebuildLog.Reason.CACHE_DISABLED, null);
+    private static final Miss ON_DEMAND_ = new Miss(RebuildLog.Reason.ON_DEMAND, null);
+
+    /*
+     * resource lists dropped from the process cache by checkCache() or
+     * clearCache(), with the reason
+     */
+    private final LRUCache<List<String>, Miss> misses_ = new LRUCache<List<String>, Miss>(
+            DEF_PROCESS_CACHE_SIZE);
+
+    private final RebuildLog rebuilds_ = new RebuildLog();
+
+    /**
+     * Return the most recent bundle builds, with the reason of each one
+     * 
+     * @return
+     * @since 1.2.9
+     */
+    public RebuildLog getRebuildLog() {
+        return this.rebuilds_;
+    }
+
+    private final List<IBuildListener> listeners_ = new CopyOnWriteArrayList<IBuildListener>();
+
+    private volatile long slowBuildNanos_ = 0;
+
+    /**
+     * Register a listener to be told the time spent in each processing stage
+     * 
+     * @param listener
+     */
+    public void addBuildListener(final IBuildListener listener) {
+        if (null == listener) {
+            throw new NullPointerException();
+        }
+        this.listeners_.add(listener);
+    }
+
+    public void removeBuildListener(final IBuildListener listener) {
+        this.listeners_.remove(listener);
+    }
+
+    /**
+     * Log a warning, with the time spent in each stage, whenever building a
+     * bundle takes longer than the given threshold
+     * 
+     * @param millis
+     *            the threshold, <code>0</code> not to log
+     */
+    public void setSlowBuildThreshold(final long millis) {
+        this.slowBuildNanos_ = millis * 1000000;
+    }
+
+    private void stage_(final IBuildListener.Stage stage, final long start) {
+        long nanos = System.nanoTime() - start;
+        Build b = this.build_.get();
+        String bundle = null, file = null;
+        if (null != b) {
+            b.nanos[stage.ordinal()] += nanos;
+            bundle = b.bundle;
+            file = b.file;
+        }
+        for (IBuildListener l : this.listeners_) {
+            l.onStage(stage, bundle, file, nanos);
+        }
+    }
+
+    private void built_(final Build b, final List<String> resourceNames, final long nanos) {
+        this.metrics_.recordBuild(nanos);
+        this.threadBuildNanos_.get()[0] += nanos;
+        for (IBuildListener l : this.listeners_) {
+            l.onBuild(b.bundle, resourceNames, nanos);
+        }
+        long threshold = this.slowBuildNanos_;
+        if (threshold > 0 && nanos >= threshold) {
+            StringBuilder sb = new StringBuilder();
+            for (IBuildListener.Stage stage : IBuildListener.Stage.values()) {
+                long t = b.nanos[stage.ordinal()];
+                if (t > 0) {
+                    sb.append(", ").append(stage.name().toLowerCase()).append(": ")
+                            .append(t / 1000000).append("ms");
+                }
+            }
+            if (null != b.slowestFile) {
+                sb.append(", slowest file: ").append(b.slowestFile).append(" (")
+                        .append(b.slowestNanos / 1000000).append("ms)");
+            }
+            logger_.warn(String.format("slow build of %1$s: %2$sms%3$s, resources: %4$s",
+                    b.bundle, nanos / 1000000, sb, resourceNames));
+        }
+    }
+
+    private String minimize_(final List<String> resourceNames, Miss miss) {
         FileCache cache = this.cache_;
 
         if (this.useCache_) {
+            String known = cache.peek(resourceNames);
             String fn = cache.get(resourceNames);
+            this.metrics_.recordFileLookup(null != fn);
             if (null != fn) {
                 if (logger_.isDebugEnabled()) {
                     logger_.debug("cached file returned: " + fn);
                 }
                 return this.cacheUrlPath_ + fn;
             }
+            if (null != known && !this.inMemory_) {
+                miss = new Miss(RebuildLog.Reason.DELETED, known);
+            }
         }
 
-        IResource rsrc = this.minimize(resourceNames);
+        IResource rsrc = this.minimize(resourceNames, miss);
 
         String fn = rsrc.getKey();
         // filename always cached without regarding to cache setting
@@ -673,44 +1226,125 @@ public class Minimizer implements IMinimizer {
         }
     }
 
+    private volatile ResourceCatalog catalog_ = null;
+
+    private volatile long catalogTime_ = 0;
+
+    /*
+     * minimum age of the catalog before a resource list it cannot decode
+     * makes it rebuilt
+     */
+    private static final long CATALOG_REFRESH_ = 10000;
+
+    /*
+     * the catalog of resource names under the resource dir, with and without
+     * extension, used to encode resource lists in bundle urls. An indexed
+     * file locator knows the resource dir of every root; other locators only
+     * locate the first one, thus resources of other roots are encoded
+     * literally
+     */
+    private ResourceCatalog catalog_() {
+        ResourceCatalog catalog = this.catalog_;
+        if (null == catalog) {
+            List<String> names = new ArrayList<String>();
+            if (this.fl_ instanceof IndexedFileLocator) {
+                List<String> exts = this.type_.getAllExtensions();
+                for (String fn : ((IndexedFileLocator) this.fl_).list(this.resourcePath_)) {
+                    this.addResource_(fn, exts, names);
+                }
+            } else {
+                File dir = this.fl_.locate(this.resourcePath_);
+                if (null != dir) {
+                    this.listResources_(dir, "", names);
+                }
+            }
+            catalog = new ResourceCatalog(names);
+            this.catalog_ = catalog;
+            this.catalogTime_ = System.currentTimeMillis();
+        }
+        return catalog;
+    }
+
+    private void listResources_(final File dir, final String path, final List<String> names) {
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        List<String> exts = this.type_.getAllExtensions();
+        for (File f : files) {
+            String fn = f.getName();
+            if (f.isDirectory()) {
+                this.listResources_(f, path + fn + "/", names);
+            } else {
+                this.addResource_(path + fn, exts, names);
+            }
+        }
+    }
+
+    private void addResource_(final String fn, final List<String> exts, final List<String> names) {
+        for (String ext : exts) {
+            if (fn.endsWith(ext)) {
+                names.add(fn);
+                names.add(fn.substring(0, fn.length() - ext.length()));
+                break;
+            }
+        }
+    }
+
+    /*
+     * resource urls are encoded relative to the resource url path, as are the
+     * names in the catalog
+     */
     private String encodeResourceNames(final List<String> resourceNames) {
-        StringBuilder builder = new StringBuilder();
+        List<String> l = new ArrayList<String>(resourceNames.size());
         for (String resourceName : resourceNames) {
             resourceName = StringUtils.stripToNull(resourceName);
             if (resourceName != null) {
-                if (builder.length() > 0) {
-                    builder.append(',');
-                }
                 if (resourceName.startsWith(this.resourceUrlPath_)) {
                     resourceName = resourceName.substring(this.resourceUrlPath_.length());
                 }
-                builder.append(resourceName);
+                l.add(resourceName);
             }
         }
-        return (builder.length() > 0) ? builder.toString() : null;
+        return l.isEmpty() ? null : this.catalog_().encode(l);
     }
 
+    /*
+     * return null if the names were encoded with a different catalog
+     */
     private List<String> decodeResourceNames(final String resourceNames) {
-        String[] names = resourceNames.split("[,]");
-        if (names.length == 0) {
-            return Collections.emptyList();
+        if (ResourceCatalog.isEncoded(resourceNames)) {
+            List<String> l = this.catalog_().decode(resourceNames);
+            if (null == l && System.currentTimeMillis() - this.catalogTime_ > CATALOG_REFRESH_) {
+                // resources might have been added since the catalog was built
+                this.catalog_ = null;
+                l = this.catalog_().decode(resourceNames);
+            }
+            if (null != l) {
+                for (int i = 0; i < l.size(); ++i) {
+                    String name = l.get(i);
+                    if (!name.startsWith("/")) {
+                        l.set(i, this.resourceUrlPath_ + name);
+                    }
+                }
+            }
+            return l;
         }
 
-        List<String> l = new ArrayList<String>(names.length);
-
+        // comma separated names, as encoded before 1.2.9
+        String[] names = resourceNames.split("[,]");
+        Set<String> set = new LinkedHashSet<String>(names.length * 2);
         for (String name : names) {
             name = StringUtils.stripToNull(name);
             if (name != null) {
                 if (!name.startsWith("/")) {
                     name = this.resourceUrlPath_ + name;
                 }
-                if (!l.contains(name)) {
-                    l.add(name);
-                }
+                set.add(name);
             }
         }
 
-        return l;
+        return new ArrayList<String>(set);
     }
 
     public static final String SYS_PROP_LESS_ENABLED = "greenscript.less.enabled";
@@ -788,6 +1422,7 @@ public class Minimizer implements IMinimizer {
     }
 
     private String fileToString_(final File f) throws IOException {
+        long start = System.nanoTime();
         BufferedReader r = new BufferedReader(new FileReader(f));
         String l = null;
         StringBuilder sb = new StringBuilder();
@@ -797,6 +1432,7 @@ public class Minimizer implements IMinimizer {
             sb.append(ls);
         }
         r.close();
+        this.stage_(IBuildListener.Stage.READ, start);
         return sb.toString();
     }
 
@@ -833,9 +1469,11 @@ public class Minimizer implements IMinimizer {
                 }
             } else {
                 if (null != s) {
-                    copy_(s, out);
+                    this.write_(s, out);
                 } else {
+                    long start = System.nanoTime();
                     copy_(file, out);
+                    this.stage_(IBuildListener.Stage.READ, start);
                 }
             }
         } catch (IOException e) {
@@ -871,7 +1509,7 @@ public class Minimizer implements IMinimizer {
         } else {
             if (file.getName().endsWith(".coffee")) {
                 try {
-                    s = this.coffee_.compile(this.fileToString_(file));
+                    s = this.compileCoffee_(this.fileToString_(file));
                 } catch (JCoffeeScriptCompileException e) {
                     logger_.error("error compile coffee script file", e);
                 }
@@ -903,7 +1541,9 @@ public class Minimizer implements IMinimizer {
             s = this.fileToString_(file);
         }
         if (ResourceType.CSS == this.type_) {
+            long start = System.nanoTime();
             s = this.processRelativeUrl_(s, originalFn);
+            this.stage_(IBuildListener.Stage.RELATIVE_URL, start);
         }
         return s;
     }
@@ -935,16 +1575,17 @@ public class Minimizer implements IMinimizer {
         if (resourceName.startsWith("/") && !resourceName.startsWith(this.ctxPath_)) {
             resourceName = this.ctxPath_ + resourceName;
         }
+        // note url paths might contain regexp meta characters, so do not use
+        // String.replaceFirst here
         if (resourceName.startsWith(this.resourceUrlPath_)) {
-            resourceName = resourceName.replaceFirst(this.resourceUrlPath_, "");
+            resourceName = resourceName.substring(this.resourceUrlPath_.length());
         } else if (resourceName.startsWith(this.resourceUrlRoot_)) {
-            resourceName = resourceName.replaceFirst(this.resourceUrlRoot_, "/");
+            resourceName = "/" + resourceName.substring(this.resourceUrlRoot_.length());
         }
         String fn = resourceName;
         String path;
         if (fn.startsWith("/")) {
-            path = (!fn.startsWith(this.rootDir_)) ? this.rootDir_ + "/" + fn.replaceFirst("/", "")
-                    : fn;
+            path = (!fn.startsWith(this.rootDir_)) ? this.rootDir_ + fn : fn;
         } else {
             path = this.resourcePath_ + "/" + fn;
         }
@@ -1017,6 +1658,10 @@ public class Minimizer implements IMinimizer {
         return this.type_;
     }
 
+    public ICompressor getCompressor() {
+        return this.compressor_;
+    }
+
     private final static Pattern P_CDN_PREFIX = Pattern.compile("^https?:");
 
     private final boolean isCDN_(final String resourceName) {
@@ -1027,6 +1672,16 @@ public class Minimizer implements IMinimizer {
         return m.find();
     }
 
+    /**
+     * Set the name of the url parameter carrying the resources of a bundle,
+     * so that a node not having the bundle can build it again, see
+     * {@link #minimize(String)}. The resources are encoded with a catalog of
+     * the files in the resource dir, see {@link ResourceCatalog}
+     * 
+     * @param resourcesParam_
+     *            the parameter name, or <code>null</code> not to add the
+     *            parameter
+     */
     public void setResourcesParam(final String resourcesParam_) {
         this.resourcesParam_ = resourcesParam_;
     }
@@ -0,0 +1,129 @@
+package com.greenscriptool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timers of a {@link Minimizer}: bundles built and the time it
+ * took, lookups of minimized files, and the amount of text going through
+ * the compressor. All counters are cumulative since the minimizer was
+ * created or {@link #reset()}.
+ *
+ * <p>Counters are updated without locking, thus a snapshot taken while
+ * bundles are being built might be slightly inconsistent.</p>
+ *
+ * @since 1.2.9
+ */
+public class MinimizerMetrics {
+
+    private final AtomicLong builds_ = new AtomicLong();
+    private final AtomicLong buildNanos_ = new AtomicLong();
+    private final AtomicLong maxBuildNanos_ = new AtomicLong();
+    private final AtomicLong fileHits_ = new AtomicLong();
+    private final AtomicLong fileMisses_ = new AtomicLong();
+    private final AtomicLong compressions_ = new AtomicLong();
+    private final AtomicLong compressIn_ = new AtomicLong();
+    private final AtomicLong compressOut_ = new AtomicLong();
+
+    void recordBuild(final long nanos) {
+        this.builds_.incrementAndGet();
+        this.buildNanos_.addAndGet(nanos);
+        long max = this.maxBuildNanos_.get();
+        while (nanos > max && !this.maxBuildNanos_.compareAndSet(max, nanos)) {
+            max = this.maxBuildNanos_.get();
+        }
+    }
+
+    void recordFileLookup(final boolean hit) {
+        (hit ? this.fileHits_ : this.fileMisses_).incrementAndGet();
+    }
+
+    void recordCompression(final long in, final long out) {
+        this.compressions_.incrementAndGet();
+        this.compressIn_.addAndGet(in);
+        this.compressOut_.addAndGet(out);
+    }
+
+    /**
+     * Return the number of bundles built
+     */
+    public long getBuildCount() {
+        return this.builds_.get();
+    }
+
+    public long getBuildTimeMillis() {
+        return this.buildNanos_.get() / 1000000;
+    }
+
+    public long getMaxBuildTimeMillis() {
+        return this.maxBuildNanos_.get() / 1000000;
+    }
+
+    public double getAverageBuildTimeMillis() {
+        long n = this.builds_.get();
+        return 0 == n ? 0 : this.buildNanos_.get() / 1e6 / n;
+    }
+
+    /**
+     * Return the number of times a minimized file was found in the file
+     * cache, sparing a build
+     */
+    public long getFileCacheHitCount() {
+        return this.fileHits_.get();
+    }
+
+    public long getFileCacheMissCount() {
+        return this.fileMisses_.get();
+    }
+
+    /**
+     * Return the number of files and contents compressed
+     */
+    public long getCompressionCount() {
+        return this.compressions_.get();
+    }
+
+    /**
+     * Return the number of characters given to the compressor
+     */
+    public long getCompressorInput() {
+        return this.compressIn_.get();
+    }
+
+    /**
+     * Return the number of characters output by the compressor
+     */
+    public long getCompressorOutput() {
+        return this.compressOut_.get();
+    }
+
+    /**
+     * @return the ratio of compressor output to input, or <code>0</code> if
+     *         nothing has been compressed
+     */
+    public double getCompressionRatio() {
+        long in = this.compressIn_.get();
+        return 0 == in ? 0 : (double) this.compressOut_.get() / in;
+    }
+
+    public void reset() {
+        this.builds_.set(0);
+        this.buildNanos_.set(0);
+        this.maxBuildNanos_.set(0);
+        this.fileHits_.set(0);
+        this.fileMisses_.set(0);
+        this.compressions_.set(0);
+        this.compressIn_.set(0);
+        this.compressOut_.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "builds: %1$s, build time: %2$sms (avg %3$.1fms, max %4$sms), file cache hits: %5$s, misses: %6$s, compressed: %7$s (%8$s -> %9$s chars, ratio %10$.2f)",
+                this.getBuildCount(), this.getBuildTimeMillis(), this.getAverageBuildTimeMillis(),
+                this.getMaxBuildTimeMillis(), this.getFileCacheHitCount(),
+                this.getFileCacheMissCount(), this.getCompressionCount(),
+                this.getCompressorInput(), this.getCompressorOutput(),
+                this.getCompressionRatio());
+    }
+}
@@ -0,0 +1,155 @@
+package com.greenscriptool;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.greenscriptool.utils.LRUCache;
+
+/**
+ * Remembers what {@link RenderSession#output(String, boolean, boolean, String, String)}
+ * returned for a request, so that pages declaring the same resources do not
+ * comprehend and process them again.
+ *
+ * <p>A request is identified by the resources asked for (or, when loading all,
+ * the resources declared for the media and browser), the resources already
+ * loaded in the session, and the versions of the {@link IDependenceManager}
+ * and {@link IMinimizer} used. Entries computed before the dependence graph or
+ * the minimizer cache changed are thus never hit again, and get evicted as
+ * least recently used.</p>
+ *
+ * <p>An output cache can be shared by all sessions of the same resource
+ * type.</p>
+ *
+ * @since 1.2.9
+ */
+public class OutputCache {
+
+    /**
+     * Default maximum number of requests remembered
+     */
+    public static final int DEF_SIZE = 1000;
+
+    private LRUCache<Key, Entry> cache_;
+
+    public OutputCache() {
+        this(DEF_SIZE);
+    }
+
+    public OutputCache(final int size) {
+        this.cache_ = new LRUCache<Key, Entry>(size);
+    }
+
+    /**
+     * Set the maximum number of requests remembered
+     *
+     * @param size
+     */
+    public void setCapacity(final int size) {
+        this.cache_.setCapacity(size);
+    }
+
+    public LRUCache.Stats getStats() {
+        return this.cache_.getStats();
+    }
+
+    public void clear() {
+        this.cache_.clear();
+    }
+
+    Entry get(final Key key) {
+        return this.cache_.get(key);
+    }
+
+    void put(final Key key, final Entry entry) {
+        this.cache_.put(key, entry);
+    }
+
+    static final class Key {
+        private final Object request_;
+        private final int mode_;
+        private Set<String> loaded_;
+        private final long depVersion_;
+        private final long minVersion_;
+        private final int hash_;
+
+        /**
+         * @param request
+         *            the name list or set of names output
+         * @param mode
+         *            distinguishes output of all, with dependencies and as
+         *            is
+         * @param loaded
+         *            the resources loaded in the session, not copied
+         */
+        Key(final Object request, final int mode, final Set<String> loaded,
+                final long depVersion, final long minVersion) {
+            this.request_ = request;
+            this.mode_ = mode;
+            this.loaded_ = loaded;
+            this.depVersion_ = depVersion;
+            this.minVersion_ = minVersion;
+            int ret = 17;
+            ret = ret * 31 + (null == request ? 0 : request.hashCode());
+            ret = ret * 31 + mode;
+            ret = ret * 31 + loaded.hashCode();
+            ret = ret * 31 + (int) (depVersion ^ (depVersion >>> 32));
+            ret = ret * 31 + (int) (minVersion ^ (minVersion >>> 32));
+            this.hash_ = ret;
+        }
+
+        /**
+         * Take a snapshot of the loaded resources before the session changes
+         * them
+         */
+        void detach_() {
+            this.loaded_ = new HashSet<String>(this.loaded_);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return this.hash_ == that.hash_ && this.mode_ == that.mode_
+                    && this.depVersion_ == that.depVersion_
+                    && this.minVersion_ == that.minVersion_
+                    && (null == this.request_ ? null == that.request_ : this.request_
+                            .equals(that.request_)) && this.loaded_.equals(that.loaded_);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash_;
+        }
+    }
+
+    static final class Entry {
+        /**
+         * the URLs returned
+         */
+        final List<String> output;
+        /**
+         * the resources added to the loaded set of the session
+         */
+        final List<String> loaded;
+        /**
+         * the attribute of urls returned, if any
+         */
+        final Map<String, String> attributes;
+
+        Entry(final List<String> output, final List<String> loaded,
+                final Map<String, String> attributes) {
+            this.output = Collections.unmodifiableList(output);
+            this.loaded = Collections.unmodifiableList(loaded);
+            this.attributes = attributes.isEmpty() ? Collections.<String, String> emptyMap()
+                    : Collections.unmodifiableMap(attributes);
+        }
+    }
+}
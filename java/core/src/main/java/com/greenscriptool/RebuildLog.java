@@ -0,0 +1,213 @@
+package com.greenscriptool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The most recent bundle builds of a {@link Minimizer}, each one tagged with
+ * the reason the bundle could not be served from a cache and, when known,
+ * the file that triggered it. Entries are kept in a ring buffer, so that
+ * only the last {@link #getCapacity()} builds are remembered, while builds
+ * are counted by reason since the log was created or {@link #clear()}ed.
+ *
+ * @since 1.2.9
+ */
+public class RebuildLog {
+
+    /**
+     * Default number of builds remembered
+     */
+    public static final int DEF_SIZE = 100;
+
+    /**
+     * Why a bundle was built
+     */
+    public enum Reason {
+        /**
+         * the resource list was not cached: first time asked for, or
+         * evicted from the process cache
+         */
+        NEW,
+        /**
+         * a resource file was found newer than the bundle by
+         * {@link IMinimizer#checkCache()}
+         */
+        MODIFIED,
+        /**
+         * the caches were cleared, e.g. when a setting changed
+         */
+        CLEARED,
+        /**
+         * the minimized file was deleted from the cache dir
+         */
+        DELETED,
+        /**
+         * caching is disabled, bundles are built on each request
+         */
+        CACHE_DISABLED,
+        /**
+         * a bundle was requested by url but was not in memory any more, see
+         * {@link Minimizer#minimize(String)}
+         */
+        ON_DEMAND
+    }
+
+    public static final class Entry {
+        private final long time_;
+        private final Reason reason_;
+        private final String trigger_;
+        private final String bundle_;
+        private final List<String> resourceNames_;
+
+        Entry(final Reason reason, final String trigger, final String bundle,
+                final List<String> resourceNames) {
+            this.time_ = System.currentTimeMillis();
+            this.reason_ = reason;
+            this.trigger_ = trigger;
+            this.bundle_ = bundle;
+            this.resourceNames_ = Collections.unmodifiableList(new ArrayList<String>(
+                    resourceNames));
+        }
+
+        /**
+         * Return when the bundle was built, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return this.time_;
+        }
+
+        public Reason getReason() {
+            return this.reason_;
+        }
+
+        /**
+         * Return what triggered the build: the modified resource file, the
+         * deleted minimized file or the setting changed, or
+         * <code>null</code> if unknown
+         */
+        public String getTrigger() {
+            return this.trigger_;
+        }
+
+        /**
+         * Return the key of the bundle built
+         */
+        public String getBundle() {
+            return this.bundle_;
+        }
+
+        public List<String> getResourceNames() {
+            return this.resourceNames_;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$tF %1$tT %2$s %3$s%4$s %5$s", this.time_, this.reason_,
+                    this.bundle_, null == this.trigger_ ? "" : " (" + this.trigger_ + ")",
+                    this.resourceNames_);
+        }
+    }
+
+    private Entry[] entries_;
+    private int next_ = 0;
+    private int size_ = 0;
+    private final AtomicLongArray counts_ = new AtomicLongArray(Reason.values().length);
+
+    public RebuildLog() {
+        this(DEF_SIZE);
+    }
+
+    public RebuildLog(final int capacity) {
+        this.entries_ = new Entry[Math.max(1, capacity)];
+    }
+
+    /**
+     * Set the number of builds remembered. Remembered builds are kept, the
+     * oldest ones first dropped if the log shrinks
+     *
+     * @param capacity
+     */
+    public synchronized void setCapacity(final int capacity) {
+        List<Entry> l = this.getEntries();
+        Entry[] entries = new Entry[Math.max(1, capacity)];
+        int n = Math.min(l.size(), entries.length);
+        for (int i = 0; i < n; ++i) {
+            entries[n - 1 - i] = l.get(i);
+        }
+        this.entries_ = entries;
+        this.size_ = n;
+        this.next_ = n % entries.length;
+    }
+
+    public synchronized int getCapacity() {
+        return this.entries_.length;
+    }
+
+    void record(final Reason reason, final String trigger, final String bundle,
+            final List<String> resourceNames) {
+        Entry e = new Entry(reason, trigger, bundle, resourceNames);
+        this.counts_.incrementAndGet(reason.ordinal());
+        synchronized (this) {
+            this.entries_[this.next_] = e;
+            this.next_ = (this.next_ + 1) % this.entries_.length;
+            if (this.size_ < this.entries_.length) {
+                ++this.size_;
+            }
+        }
+    }
+
+    /**
+     * Return the builds remembered, most recent first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> l = new ArrayList<Entry>(this.size_);
+        int n = this.entries_.length;
+        for (int i = 1; i <= this.size_; ++i) {
+            l.add(this.entries_[(this.next_ - i + n) % n]);
+        }
+        return l;
+    }
+
+    public long getCount(final Reason reason) {
+        return this.counts_.get(reason.ordinal());
+    }
+
+    /**
+     * Return the number of builds by reason, leaving out reasons that never
+     * occurred
+     */
+    public Map<Reason, Long> getCounts() {
+        Map<Reason, Long> m = new EnumMap<Reason, Long>(Reason.class);
+        for (Reason reason : Reason.values()) {
+            long n = this.counts_.get(reason.ordinal());
+            if (n > 0) {
+                m.put(reason, n);
+            }
+        }
+        return m;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < this.entries_.length; ++i) {
+            this.entries_[i] = null;
+        }
+        this.next_ = 0;
+        this.size_ = 0;
+        for (int i = 0; i < this.counts_.length(); ++i) {
+            this.counts_.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("builds by reason: ").append(this.getCounts());
+        for (Entry e : this.getEntries()) {
+            sb.append("\n").append(e);
+        }
+        return sb.toString();
+    }
+}
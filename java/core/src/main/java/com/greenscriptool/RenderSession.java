@@ -2,8 +2,10 @@ package com.greenscriptool;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -27,10 +29,47 @@ public class RenderSession implements IRenderSession {
 
     private ResourceType type_ = null;
 
+    private OutputCache c_ = null;
+
+    private final RenderTimings timings_ = new RenderTimings();
+
+    /**
+     * Store names of resources declared using
+     * {@link #declare(String, String, String)}, indexed by browser key then
+     * by media key, see {@link #key_(String)}
+     */
+    private Map<String, Map<String, Set<String>>> declared_ =
+            new HashMap<String, Map<String, Set<String>>>();
+
+    /**
+     * Store the canonical form of each media and browser key as first
+     * declared in this session
+     */
+    private Map<String, String> forms_ = new HashMap<String, String>();
+
     /**
-     * Store resource declared using {@link #declare(String, String, String)}
+     * Media and browser as written in templates to their keys. Not request
+     * specific, thus kept across {@link #reset(IMinimizer, IDependenceManager)}
      */
-    private Set<Resource> declared_ = new HashSet<RenderSession.Resource>();
+    private Map<String, String> keys_ = new HashMap<String, String>();
+
+    private static final int MAX_KEYS_ = 256;
+
+    /**
+     * Attribute, e.g. "async", of resources by name, shared by sessions
+     */
+    private Map<String, String> attributes_ = Collections.emptyMap();
+
+    /**
+     * Store the attribute of urls output in this session
+     */
+    private Map<String, String> urlAttributes_ = new HashMap<String, String>();
+
+    /**
+     * Store urls output in this session for every browser and for all or
+     * screen media
+     */
+    private List<String> outputs_ = new ArrayList<String>();
 
     /**
      * Store all resources that has been loaded (in this session) already
@@ -65,6 +104,69 @@ public class RenderSession implements IRenderSession {
         this.type_ = type;
     }
 
+    /**
+     * Forget everything declared, loaded and inlined so far and bind this
+     * session to the given {@link IMinimizer} and {@link IDependenceManager}.
+     * This allows a session and its collections to be reused by the next
+     * request served on the same thread
+     *
+     * @param minimizer
+     * @param depMgr
+     * @since 1.2.9
+     */
+    public void reset(final IMinimizer minimizer, final IDependenceManager depMgr) {
+        if (null == minimizer || null == depMgr) {
+            throw new NullPointerException();
+        }
+        this.m_ = minimizer;
+        this.d_ = depMgr;
+        this.declared_.clear();
+        this.forms_.clear();
+        this.loaded_.clear();
+        this.inlines_.clear();
+        this.urlAttributes_.clear();
+        this.outputs_.clear();
+        this.timings_.reset();
+    }
+
+    /**
+     * Return the time spent by this session since it was created or
+     * {@link #reset(IMinimizer, IDependenceManager)}
+     *
+     * @return
+     * @since 1.2.9
+     */
+    public RenderTimings getTimings() {
+        return this.timings_;
+    }
+
+    /**
+     * Set the attribute to output with each resource, e.g. "async" or
+     * "defer" for javascript. Resources not in the map get no attribute
+     *
+     * @param attributes
+     *            resource name to attribute
+     * @since 1.2.9
+     */
+    public void setAttributes(final Map<String, String> attributes) {
+        if (null == attributes) {
+            throw new NullPointerException();
+        }
+        this.attributes_ = attributes;
+    }
+
+    /**
+     * Share an {@link OutputCache} with other sessions of the same resource
+     * type
+     *
+     * @param cache
+     *            the output cache, or <code>null</code> to compute every output
+     * @since 1.2.9
+     */
+    public void setOutputCache(final OutputCache cache) {
+        this.c_ = cache;
+    }
+
     private final void trace(final String s, final Object... args) {
         // s = String.format(s, args);
         // logger_.info(s);
@@ -85,20 +187,40 @@ public class RenderSession implements IRenderSession {
     public void declare(final String nameList, String media, String browser) {
         this.d_.processInlineDependency(nameList);
         String[] sa = nameList.split(SEPARATOR);
-        media = this.canonical_(media);
-        browser = this.canonical_(browser);
+        Set<String> set = this.declared_(media, browser);
         for (String name : sa) {
-            this.declared_.add(new Resource(name, media, browser));
+            set.add(name);
         }
     }
 
     @Override
     public void declare(final List<String> nameList, String media, String browser) {
-        media = this.canonical_(media);
-        browser = this.canonical_(browser);
-        for (String name : nameList) {
-            this.declared_.add(new Resource(name, media, browser));
+        if (nameList.isEmpty()) {
+            return;
         }
+        this.declared_(media, browser).addAll(nameList);
+    }
+
+    private Set<String> declared_(final String media, final String browser) {
+        String mk = this.key_(media);
+        String bk = this.key_(browser);
+        if (!this.forms_.containsKey(mk)) {
+            this.forms_.put(mk, this.canonical_(media));
+        }
+        if (!this.forms_.containsKey(bk)) {
+            this.forms_.put(bk, this.canonical_(browser));
+        }
+        Map<String, Set<String>> byMedia = this.declared_.get(bk);
+        if (null == byMedia) {
+            byMedia = new HashMap<String, Set<String>>();
+            this.declared_.put(bk, byMedia);
+        }
+        Set<String> set = byMedia.get(mk);
+        if (null == set) {
+            set = new HashSet<String>();
+            byMedia.put(mk, set);
+        }
+        return set;
     }
 
     @Override
@@ -108,9 +230,32 @@ public class RenderSession implements IRenderSession {
             this.declare(nameList, null, null);
         }
 
+        RenderTimings t = this.timings_;
+        ++t.outputs_;
+        long start = System.nanoTime();
+        boolean everyPage = this.isDefault(browser) && everyPage_(this.key_(media));
+        Set<String> declared = all ? this.getByMediaAndBrowser_(media, browser) : null;
+        OutputCache.Key key = null;
+        if (null != this.c_ && this.m_.isCacheEnabled()) {
+            key = new OutputCache.Key(all ? declared : nameList, all ? 2 : withDependencies ? 1
+                    : 0, this.loaded_, this.d_.getVersion(), this.m_.getVersion());
+            OutputCache.Entry e = this.c_.get(key);
+            if (null != e) {
+                this.loaded_.addAll(e.loaded);
+                this.urlAttributes_.putAll(e.attributes);
+                if (everyPage) {
+                    this.outputs_.addAll(e.output);
+                }
+                ++t.outputCacheHits_;
+                t.processNanos_ += System.nanoTime() - start;
+                return new ArrayList<String>(e.output);
+            }
+            key.detach_();
+        }
+
         List<String> l = null;
         if (all) {
-            l = this.d_.comprehend(this.getByMediaAndBrowser_(media, browser), true);
+            l = this.d_.comprehend(declared, true);
         } else if (withDependencies) {
             l = this.d_.comprehend(nameList);
         } else if (null != nameList) {
@@ -124,26 +269,97 @@ public class RenderSession implements IRenderSession {
         } else {
             l = Collections.emptyList();
         }
+        long now = System.nanoTime();
+        t.comprehendNanos_ += now - start;
+        start = now;
 
         if (l.isEmpty()) {
             return l;
         }
 
+        long builds = this.m_.getThreadBuildNanos();
+
+        List<String> urls = new ArrayList<String>();
+        List<String> loaded = new ArrayList<String>();
+        Map<String, String> attributes = new HashMap<String, String>();
+        int from = 0, n = l.size();
+        while (from < n) {
+            // adjacent resources sharing an attribute are processed together,
+            // so that a bundle never mixes resources with different attributes
+            String attribute = this.attributes_.get(l.get(from));
+            int to = from + 1;
+            while (to < n && eq_(attribute, this.attributes_.get(l.get(to)))) {
+                ++to;
+            }
+            List<String> run = 0 == from && n == to ? l : new ArrayList<String>(l.subList(from,
+                    to));
+            List<String> out = this.process_(run, loaded);
+            if (null != attribute) {
+                for (String url : out) {
+                    attributes.put(url, attribute);
+                }
+            }
+            urls.addAll(out);
+            from = to;
+        }
+        this.urlAttributes_.putAll(attributes);
+        if (everyPage) {
+            this.outputs_.addAll(urls);
+        }
+
+        if (null != key) {
+            this.c_.put(key, new OutputCache.Entry(new ArrayList<String>(urls), loaded, attributes));
+        }
+        t.buildNanos_ += this.m_.getThreadBuildNanos() - builds;
+        t.processNanos_ += System.nanoTime() - start;
+        return urls;
+    }
+
+    private List<String> process_(List<String> l, final List<String> loaded) {
         if (this.m_.isMinimizeEnabled()) {
             l = this.m_.processWithoutMinimize(l);
             l.removeAll(this.loaded_);
             this.loaded_.addAll(l);
+            loaded.addAll(l);
             this.trace(l.toString());
-            l = this.m_.process(l);
-        } else {
-            l = this.m_.process(l);
-            l.removeAll(this.loaded_);
-            this.loaded_.addAll(l);
+            return this.m_.process(l);
         }
-
+        l = this.m_.process(l);
+        l.removeAll(this.loaded_);
+        this.loaded_.addAll(l);
+        loaded.addAll(l);
         return l;
     }
 
+    /*
+     * Tell whether resources output for the media key are used whatever the
+     * device, unlike e.g. print stylesheets
+     */
+    private static boolean everyPage_(final String mediaKey) {
+        return DEFAULT.equals(mediaKey) || "all".equals(mediaKey) || "screen".equals(mediaKey);
+    }
+
+    private static boolean eq_(final String s1, final String s2) {
+        return null == s1 ? null == s2 : s1.equals(s2);
+    }
+
+    @Override
+    public String getAttribute(final String url) {
+        return this.urlAttributes_.get(url);
+    }
+
+    /**
+     * Return urls output by this session so far, in the order they were
+     * output. Urls output for a specific browser, i.e. within conditional
+     * comments, or for media other than all and screen are left out
+     *
+     * @return
+     * @since 1.2.9
+     */
+    public List<String> getOutputs() {
+        return Collections.unmodifiableList(this.outputs_);
+    }
+
     @Override
     public String outputInline() {
         StringBuilder all = new StringBuilder();
@@ -151,12 +367,28 @@ public class RenderSession implements IRenderSession {
             all.append(sb);
             sb.delete(0, sb.length());
         }
-        return this.m_.processInline(all.toString());
+        long start = System.nanoTime();
+        try {
+            return this.m_.processInline(all.toString());
+        } finally {
+            this.timings_.inlineNanos_ += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public String externalizeInline(final String inline) {
+        long start = System.nanoTime();
+        long builds = this.m_.getThreadBuildNanos();
+        try {
+            return this.m_.externalizeInline(inline);
+        } finally {
+            this.timings_.buildNanos_ += this.m_.getThreadBuildNanos() - builds;
+            this.timings_.inlineNanos_ += System.nanoTime() - start;
+        }
     }
 
     public boolean isDefault(String s) {
-        s = this.canonical_(s);
-        return s.equalsIgnoreCase(DEFAULT);
+        return DEFAULT.equals(this.key_(s));
     }
 
     private String canonical_(final String s) {
@@ -166,86 +398,65 @@ public class RenderSession implements IRenderSession {
         return s.trim().replaceAll("\\s+", " ");
     }
 
-    private Set<String> getByMediaAndBrowser_(String media, String browser) {
-        Set<String> set = new HashSet<String>();
-        media = this.canonical_(media);
-        browser = this.canonical_(browser);
-        for (Resource r : this.declared_) {
-            if (r.media.equalsIgnoreCase(media) && r.browser.equalsIgnoreCase(browser)) {
-                set.add(r.name);
+    /**
+     * Return the key of a media or browser: its canonical form lower cased
+     * and interned
+     */
+    private String key_(final String s) {
+        if (null == s) {
+            return DEFAULT;
+        }
+        String key = this.keys_.get(s);
+        if (null == key) {
+            if (this.keys_.size() >= MAX_KEYS_) {
+                this.keys_.clear();
             }
+            key = this.canonical_(s).toLowerCase().intern();
+            this.keys_.put(s, key);
         }
-        set.removeAll(this.loaded_);
-        return set;
+        return key;
     }
 
-    @Override
-    public Set<String> getMedias(String browser) {
+    private Set<String> getByMediaAndBrowser_(final String media, final String browser) {
         Set<String> set = new HashSet<String>();
-        browser = this.canonical_(browser);
-        for (Resource r : this.declared_) {
-            if (r.browser.equalsIgnoreCase(browser)) {
-                set.add(r.media);
+        Map<String, Set<String>> byMedia = this.declared_.get(this.key_(browser));
+        if (null != byMedia) {
+            Set<String> names = byMedia.get(this.key_(media));
+            if (null != names) {
+                set.addAll(names);
+                set.removeAll(this.loaded_);
             }
         }
-        set.remove(DEFAULT);
         return set;
     }
 
     @Override
-    public Set<String> getBrowsers() {
+    public Set<String> getMedias(final String browser) {
         Set<String> set = new HashSet<String>();
-        for (Resource r : this.declared_) {
-            set.add(r.browser);
+        Map<String, Set<String>> byMedia = this.declared_.get(this.key_(browser));
+        if (null != byMedia) {
+            this.forms_(byMedia.keySet(), set);
         }
-        set.remove(DEFAULT);
         return set;
     }
 
     @Override
-    public boolean hasDeclared() {
-        return this.declared_.size() > 0;
+    public Set<String> getBrowsers() {
+        Set<String> set = new HashSet<String>();
+        this.forms_(this.declared_.keySet(), set);
+        return set;
     }
 
-    private class Resource {
-        String name;
-        String media;
-        String browser;
-
-        public Resource(final String name, final String media, final String browser) {
-            if (null == name) {
-                throw new NullPointerException();
-            }
-            this.name = name;
-            this.media = null == media ? DEFAULT : media;
-            this.browser = null == browser ? DEFAULT : browser;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (obj == this) {
-                return true;
-            }
-            if (!(obj instanceof Resource)) {
-                return false;
+    private void forms_(final Set<String> keys, final Set<String> set) {
+        for (String key : keys) {
+            if (!DEFAULT.equals(key)) {
+                set.add(this.forms_.get(key));
             }
-            Resource that = (Resource) obj;
-            return that.name.equals(this.name) && that.media.equals(this.media)
-                    && that.browser.equals(this.browser);
-        }
-
-        @Override
-        public int hashCode() {
-            int ret = 17;
-            ret = ret * 31 + this.name.hashCode();
-            ret = ret * 31 + this.media.hashCode();
-            ret = ret * 31 + this.browser.hashCode();
-            return ret;
         }
+    }
 
-        @Override
-        public String toString() {
-            return this.name;
-        }
+    @Override
+    public boolean hasDeclared() {
+        return !this.declared_.isEmpty();
     }
 }
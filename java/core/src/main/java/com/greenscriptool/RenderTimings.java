@@ -0,0 +1,136 @@
+package com.greenscriptool;
+
+import java.util.Locale;
+
+/**
+ * Time spent by a {@link RenderSession} on behalf of the current request:
+ * comprehending dependencies, processing resources into urls, processing
+ * inline content and building bundles on demand, along with how many
+ * outputs were served from the {@link OutputCache}.
+ *
+ * <p>Timings are only updated by the thread owning the session, and cost a
+ * couple of {@link System#nanoTime()} calls per tag.</p>
+ *
+ * @since 1.2.9
+ */
+public class RenderTimings {
+
+    long comprehendNanos_;
+    long processNanos_;
+    long inlineNanos_;
+    long buildNanos_;
+    int outputs_;
+    int outputCacheHits_;
+
+    void reset() {
+        this.comprehendNanos_ = 0;
+        this.processNanos_ = 0;
+        this.inlineNanos_ = 0;
+        this.buildNanos_ = 0;
+        this.outputs_ = 0;
+        this.outputCacheHits_ = 0;
+    }
+
+    /**
+     * Tell whether the session did anything worth reporting
+     */
+    public boolean isEmpty() {
+        return 0 == this.outputs_ && 0 == this.inlineNanos_;
+    }
+
+    public long getComprehendNanos() {
+        return this.comprehendNanos_;
+    }
+
+    /**
+     * Return the time spent turning resource names into urls, builds
+     * included
+     */
+    public long getProcessNanos() {
+        return this.processNanos_;
+    }
+
+    public long getInlineNanos() {
+        return this.inlineNanos_;
+    }
+
+    /**
+     * Return the time spent building bundles, a part of
+     * {@link #getProcessNanos()} and {@link #getInlineNanos()}
+     */
+    public long getBuildNanos() {
+        return this.buildNanos_;
+    }
+
+    public long getTotalNanos() {
+        return this.comprehendNanos_ + this.processNanos_ + this.inlineNanos_;
+    }
+
+    /**
+     * Return the number of output tags rendered
+     */
+    public int getOutputCount() {
+        return this.outputs_;
+    }
+
+    /**
+     * Return the number of output tags answered by the {@link OutputCache}
+     */
+    public int getOutputCacheHitCount() {
+        return this.outputCacheHits_;
+    }
+
+    /**
+     * Append the timings as <code>Server-Timing</code> header metrics named
+     * after the given prefix, e.g. <code>gs-js;dur=1.20;desc="2 outputs, 1
+     * cached", gs-js-process;dur=0.90</code>. Metrics of stages that took no
+     * time are left out
+     *
+     * @param sb
+     * @param prefix
+     */
+    public void appendServerTiming(final StringBuilder sb, final String prefix) {
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        metric_(sb, prefix, this.getTotalNanos());
+        sb.append(";desc=\"").append(this.outputs_).append(" outputs, ")
+                .append(this.outputCacheHits_).append(" cached\"");
+        if (this.comprehendNanos_ > 0) {
+            metric_(sb.append(", "), prefix + "-comprehend", this.comprehendNanos_);
+        }
+        if (this.processNanos_ > 0) {
+            metric_(sb.append(", "), prefix + "-process", this.processNanos_);
+        }
+        if (this.buildNanos_ > 0) {
+            metric_(sb.append(", "), prefix + "-build", this.buildNanos_);
+        }
+        if (this.inlineNanos_ > 0) {
+            metric_(sb.append(", "), prefix + "-inline", this.inlineNanos_);
+        }
+    }
+
+    private static void metric_(final StringBuilder sb, final String name, final long nanos) {
+        sb.append(name).append(";dur=").append(duration(nanos));
+    }
+
+    /**
+     * Format a duration as a <code>Server-Timing</code> <code>dur</code>
+     * value: milliseconds with two decimals and a dot whatever the default
+     * locale, as a comma would separate metrics
+     *
+     * @param nanos
+     */
+    public static String duration(final long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%1$.2fms (comprehend: %2$.2fms, process: %3$.2fms, build: %4$.2fms, inline: %5$.2fms), outputs: %6$s, cached: %7$s",
+                this.getTotalNanos() / 1e6, this.comprehendNanos_ / 1e6,
+                this.processNanos_ / 1e6, this.buildNanos_ / 1e6, this.inlineNanos_ / 1e6,
+                this.outputs_, this.outputCacheHits_);
+    }
+}
@@ -5,6 +5,8 @@ import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.UUID;
 
 import com.greenscriptool.IResource;
 
@@ -14,9 +16,14 @@ public class BufferResource implements IResource, Serializable {
      * 
      */
     private static final long serialVersionUID = 3173516477770425002L;
+
+    private static final Charset UTF8_ = Charset.forName("UTF-8");
     
     private String key_;
     private String buffer_;
+    private long lastModified_;
+    private String etag_;
+    private transient byte[] bytes_;
     
     public BufferResource(String key) {
         if (null == key) throw new NullPointerException();
@@ -35,9 +42,70 @@ public class BufferResource implements IResource, Serializable {
             @Override
             public void close() {
                 BufferResource.this.buffer_ = this.toString();
+                BufferResource.this.etag_ = null;
+                BufferResource.this.bytes_ = null;
+                BufferResource.this.lastModified_ = System.currentTimeMillis();
+                BufferResource.this.written();
             }
         };
     }
+
+    /**
+     * Called once the writer is closed. A {@link IBufferLocator} sharing
+     * buffers may publish them from here rather than when creating them, so
+     * that a buffer is never found before its content is written
+     * 
+     * @since 1.2.9
+     */
+    protected void written() {
+    }
+
+    /**
+     * Return the time the content was last written
+     * 
+     * @since 1.2.9
+     */
+    public long getLastModified() {
+        return lastModified_;
+    }
+
+    /**
+     * Return a strong entity tag computed from the content
+     * 
+     * @since 1.2.9
+     */
+    public String getETag() {
+        String etag = etag_;
+        if (null == etag) {
+            boolean written = null != buffer_;
+            etag = "\"" + UUID.nameUUIDFromBytes(getBytes()) + "\"";
+            if (written) {
+                // not cached before the content is written
+                etag_ = etag;
+            }
+        }
+        return etag;
+    }
+
+    /**
+     * Return the content encoded in UTF-8. The array is shared, do not
+     * modify it
+     * 
+     * @since 1.2.9
+     */
+    public byte[] getBytes() {
+        byte[] ba = bytes_;
+        if (null == ba) {
+            String s = buffer_;
+            if (null == s) {
+                // not written yet
+                return new byte[0];
+            }
+            ba = s.getBytes(UTF8_);
+            bytes_ = ba;
+        }
+        return ba;
+    }
     
     @Override
     public String toString() {
@@ -66,6 +66,18 @@ public class FileCache {
         return fn;
     }
 
+    /**
+     * Return cached filename whether the file exists or not, so that callers
+     * can tell a file never cached from a file deleted
+     * 
+     * @param key
+     * @return filename by key, null if none cached
+     * @since 1.2.9
+     */
+    public String peek(final List<String> key) {
+        return this.m_.get(key);
+    }
+
     public String put(final List<String> key, final String fileName) {
         String old = this.remove(key);
         this.m_.put(key, fileName);
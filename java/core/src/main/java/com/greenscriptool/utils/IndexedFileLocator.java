@@ -0,0 +1,188 @@
+package com.greenscriptool.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.greenscriptool.IFileLocator;
+
+/**
+ * An {@link IFileLocator} that resolves paths from an index of all files
+ * found under a set of resource directories.
+ *
+ * <p>The index is built by {@link #rebuild()}, usually once at startup. A
+ * path under an indexed directory but not in the index is known not to exist.
+ * Other paths are resolved by the delegate locator and the result, including
+ * "not found", is remembered in a bounded cache, so that repeated lookups of
+ * the same path never touch the file system again.</p>
+ *
+ * <p>Call {@link #refreshIfChanged()} to rebuild the index when a file has been
+ * added to or removed from any indexed directory</p>
+ *
+ * @since 1.2.9
+ */
+public class IndexedFileLocator implements IFileLocator {
+
+    /**
+     * Default maximum number of paths resolved by the delegate locator that
+     * are remembered
+     */
+    public static final int DEF_FALLBACK_CACHE_SIZE = 2000;
+
+    /**
+     * marks a path known not to exist
+     */
+    private static final File NOT_FOUND_ = new File("");
+
+    private final IFileLocator delegate_;
+
+    private final List<File> dirs_ = new ArrayList<File>();
+    private final List<String> prefixes_ = new ArrayList<String>();
+
+    private volatile Index index_ = new Index();
+
+    private final LRUCache<String, File> fallback_ = new LRUCache<String, File>(
+            DEF_FALLBACK_CACHE_SIZE);
+
+    public IndexedFileLocator(final IFileLocator delegate) {
+        if (null == delegate) {
+            throw new NullPointerException();
+        }
+        this.delegate_ = delegate;
+    }
+
+    /**
+     * Add a directory to be indexed. A file found in the directory is keyed
+     * by <code>prefix</code> followed by its path relative to the directory,
+     * e.g. file <code>javascripts/a.js</code> in a directory added with prefix
+     * <code>/public</code> is located by <code>/public/javascripts/a.js</code>.
+     *
+     * <p>When the same key is found in more than one directory, the one added
+     * first wins</p>
+     *
+     * @param dir
+     * @param prefix
+     */
+    public synchronized void addDir(final File dir, String prefix) {
+        if (null == dir || null == prefix) {
+            throw new NullPointerException();
+        }
+        if (prefix.endsWith("/")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        this.dirs_.add(dir);
+        this.prefixes_.add(prefix);
+    }
+
+    /**
+     * Scan all directories and replace the current index
+     */
+    public synchronized void rebuild() {
+        Index idx = new Index();
+        for (int i = 0; i < this.dirs_.size(); ++i) {
+            File dir = this.dirs_.get(i);
+            String prefix = this.prefixes_.get(i);
+            if (dir.isDirectory()) {
+                this.scan_(dir, prefix, idx);
+                if (!idx.prefixes.contains(prefix)) {
+                    idx.prefixes.add(prefix);
+                }
+            }
+        }
+        this.index_ = idx;
+        this.fallback_.clear();
+    }
+
+    /**
+     * Rebuild the index if any indexed directory has been modified since
+     * last scan
+     *
+     * @return <code>true</code> if the index has been rebuilt
+     */
+    public boolean refreshIfChanged() {
+        for (Map.Entry<File, Long> e : this.index_.dirs.entrySet()) {
+            if (e.getKey().lastModified() != e.getValue()) {
+                this.rebuild();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of files and directories in the index
+     */
+    public int size() {
+        return this.index_.files.size();
+    }
+
+    private void scan_(final File dir, final String key, final Index idx) {
+        idx.dirs.put(dir, dir.lastModified());
+        if (!idx.files.containsKey(key)) {
+            idx.files.put(key, dir);
+        }
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File f : files) {
+            String k = key + "/" + f.getName();
+            if (f.isDirectory()) {
+                this.scan_(f, k, idx);
+            } else if (!idx.files.containsKey(k)) {
+                idx.files.put(k, f);
+            }
+        }
+    }
+
+    @Override
+    public File locate(final String path) {
+        Index idx = this.index_;
+        File f = idx.files.get(path);
+        if (null != f) {
+            return f;
+        }
+        for (String prefix : idx.prefixes) {
+            if (path.startsWith(prefix) && path.startsWith("/", prefix.length())) {
+                return null;
+            }
+        }
+        f = this.fallback_.get(path);
+        if (null == f) {
+            f = this.delegate_.locate(path);
+            this.fallback_.put(path, null == f ? NOT_FOUND_ : f);
+        }
+        return f == NOT_FOUND_ ? null : f;
+    }
+
+    /**
+     * Return the paths of all indexed files under the given path, relative to
+     * it, whichever indexed directory they were found in
+     *
+     * @param path
+     *            e.g. <code>/public/javascripts</code>
+     * @return e.g. <code>a.js</code> and <code>lib/b.js</code>
+     */
+    public List<String> list(final String path) {
+        Index idx = this.index_;
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<String> l = new ArrayList<String>();
+        for (Map.Entry<String, File> e : idx.files.entrySet()) {
+            if (e.getKey().startsWith(prefix) && !idx.dirs.containsKey(e.getValue())) {
+                l.add(e.getKey().substring(prefix.length()));
+            }
+        }
+        return l;
+    }
+
+    /**
+     * An immutable (once published) snapshot of the indexed files
+     */
+    private static class Index {
+        private final Map<String, File> files = new HashMap<String, File>();
+        private final Map<File, Long> dirs = new HashMap<File, Long>();
+        private final List<String> prefixes = new ArrayList<String>();
+    }
+}
@@ -0,0 +1,298 @@
+package com.greenscriptool.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded, thread safe cache with least-recently-used eviction.
+ *
+ * <p>The cache is split into a number of segments, each of them an access
+ * ordered {@link LinkedHashMap} guarded by its own lock, so that concurrent
+ * readers of different keys seldom contend. The capacity is shared evenly
+ * between segments, which makes the eviction order an approximation of a
+ * global LRU order.</p>
+ *
+ * <p>Hit, miss and eviction counters are kept to help sizing the cache, see
+ * {@link #getStats()}</p>
+ *
+ * @since 1.2.9
+ */
+public class LRUCache<K, V> {
+
+    private static final int MAX_SEGMENTS_ = 16;
+
+    /**
+     * segments with less entries than this do not get split any further
+     */
+    private static final int MIN_SEGMENT_CAPACITY_ = 32;
+
+    private volatile Segment<K, V>[] segments_;
+
+    private volatile int capacity_;
+
+    private final AtomicLong hits_ = new AtomicLong();
+    private final AtomicLong misses_ = new AtomicLong();
+    private final AtomicLong evictions_ = new AtomicLong();
+
+    public LRUCache(final int capacity) {
+        this.setCapacity(capacity);
+    }
+
+    /**
+     * Change the maximum number of entries. The cache is re-segmented if
+     * needed, in which case the entries that are being written concurrently
+     * might get lost
+     *
+     * @param capacity
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public synchronized void setCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int n = Math.max(1, Math.min(MAX_SEGMENTS_, capacity / MIN_SEGMENT_CAPACITY_));
+        Segment<K, V>[] old = this.segments_;
+        Segment<K, V>[] segments = old;
+        if (null == old || old.length != n) {
+            segments = new Segment[n];
+            for (int i = 0; i < n; ++i) {
+                segments[i] = new Segment<K, V>(this);
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            // spread the remainder over the first segments
+            segments[i].capacity_ = capacity / n + (i < capacity % n ? 1 : 0);
+        }
+        this.capacity_ = capacity;
+        if (segments != old) {
+            this.segments_ = segments;
+            if (null != old) {
+                for (Segment<K, V> s : old) {
+                    synchronized (s) {
+                        for (Map.Entry<K, V> e : s.entrySet()) {
+                            this.put(e.getKey(), e.getValue());
+                        }
+                    }
+                }
+            }
+        } else {
+            for (Segment<K, V> s : segments) {
+                synchronized (s) {
+                    s.trim_();
+                }
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return this.capacity_;
+    }
+
+    private Segment<K, V> segment_(final Object key) {
+        Segment<K, V>[] segments = this.segments_;
+        int h = key.hashCode();
+        // spread bits the same way HashMap does
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * Return the value cached with the key and mark the entry as the most
+     * recently used one
+     *
+     * @param key
+     * @return the cached value or <code>null</code> if not found
+     */
+    public V get(final K key) {
+        Segment<K, V> s = this.segment_(key);
+        V v;
+        synchronized (s) {
+            v = s.get(key);
+        }
+        if (null == v) {
+            this.misses_.incrementAndGet();
+        } else {
+            this.hits_.incrementAndGet();
+        }
+        return v;
+    }
+
+    public V put(final K key, final V value) {
+        if (null == value) {
+            throw new NullPointerException();
+        }
+        Segment<K, V> s = this.segment_(key);
+        synchronized (s) {
+            return s.put(key, value);
+        }
+    }
+
+    public V remove(final K key) {
+        Segment<K, V> s = this.segment_(key);
+        synchronized (s) {
+            return s.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> s : this.segments_) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment<K, V> s : this.segments_) {
+            synchronized (s) {
+                n += s.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return a snapshot of the keys currently cached. Changes to the cache
+     * after this method returned are not reflected in the returned list
+     *
+     * @return
+     */
+    public List<K> keys() {
+        List<K> l = new ArrayList<K>();
+        for (Segment<K, V> s : this.segments_) {
+            synchronized (s) {
+                l.addAll(s.keySet());
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Return a snapshot of the values currently cached, see {@link #keys()}
+     *
+     * @return
+     */
+    public List<V> values() {
+        List<V> l = new ArrayList<V>();
+        for (Segment<K, V> s : this.segments_) {
+            synchronized (s) {
+                l.addAll(s.values());
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Return a snapshot of the cache statistics
+     *
+     * @return
+     */
+    public Stats getStats() {
+        return new Stats(this.hits_.get(), this.misses_.get(), this.evictions_.get(),
+                this.size(), this.capacity_);
+    }
+
+    /**
+     * Reset hit, miss and eviction counters
+     */
+    public void resetStats() {
+        this.hits_.set(0);
+        this.misses_.set(0);
+        this.evictions_.set(0);
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = -4012412958410417062L;
+
+        private final transient LRUCache<K, V> owner_;
+        private volatile int capacity_;
+
+        private Segment(final LRUCache<K, V> owner) {
+            super(16, 0.75f, true);
+            this.owner_ = owner;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+            if (this.size() > this.capacity_) {
+                this.owner_.evictions_.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * evict least recently used entries after capacity shrunk
+         */
+        private void trim_() {
+            Iterator<K> itr = this.keySet().iterator();
+            while (this.size() > this.capacity_ && itr.hasNext()) {
+                itr.next();
+                itr.remove();
+                this.owner_.evictions_.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of {@link LRUCache} statistics
+     */
+    public static class Stats {
+        private final long hits_;
+        private final long misses_;
+        private final long evictions_;
+        private final int size_;
+        private final int capacity_;
+
+        public Stats(final long hits, final long misses, final long evictions, final int size,
+                final int capacity) {
+            this.hits_ = hits;
+            this.misses_ = misses;
+            this.evictions_ = evictions;
+            this.size_ = size;
+            this.capacity_ = capacity;
+        }
+
+        public long getHitCount() {
+            return this.hits_;
+        }
+
+        public long getMissCount() {
+            return this.misses_;
+        }
+
+        public long getEvictionCount() {
+            return this.evictions_;
+        }
+
+        public int getSize() {
+            return this.size_;
+        }
+
+        public int getCapacity() {
+            return this.capacity_;
+        }
+
+        /**
+         * @return the ratio of hits to all lookups, or <code>0</code> if
+         *         the cache has never been queried
+         */
+        public double getHitRate() {
+            long total = this.hits_ + this.misses_;
+            return 0 == total ? 0 : (double) this.hits_ / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size: %1$s/%2$s, hits: %3$s, misses: %4$s, evictions: %5$s, hit rate: %6$.2f%%",
+                    this.size_, this.capacity_, this.hits_, this.misses_, this.evictions_,
+                    this.getHitRate() * 100);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.greenscriptool.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A sorted list of resource names shared by all nodes serving the same
+ * application, used to encode a list of resources in a short string.
+ *
+ * <p>A resource list is encoded as <code>v1.&lt;version&gt;.&lt;data&gt;</code>,
+ * where the version is a hash of the catalog content, and the data is the
+ * base64url encoded sequence of the catalog indexes of the resources, each
+ * one written as a variable length integer. Resources not in the catalog are
+ * written literally. The order of the resources is kept, as it matters to
+ * the bundle built from them.</p>
+ *
+ * <p>Any node with the same catalog decodes the same list, in time linear to
+ * the length of the string; other nodes refuse to decode it, see
+ * {@link #decode(String)}</p>
+ *
+ * @since 1.2.9
+ */
+public class ResourceCatalog {
+
+    private static final String PREFIX_ = "v1.";
+
+    private static final Charset UTF8_ = Charset.forName("UTF-8");
+
+    private static final char[] BASE64_ = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .toCharArray();
+
+    private static final int[] BASE64_INDEX_ = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_INDEX_.length; ++i) {
+            BASE64_INDEX_[i] = -1;
+        }
+        for (int i = 0; i < BASE64_.length; ++i) {
+            BASE64_INDEX_[BASE64_[i]] = i;
+        }
+    }
+
+    private final String[] names_;
+    private final Map<String, Integer> index_;
+    private final String version_;
+
+    /**
+     * Construct a catalog of the given names. Nodes constructing their
+     * catalog from the same names get the same catalog, whatever the order
+     * of the names
+     *
+     * @param names
+     */
+    public ResourceCatalog(final Collection<String> names) {
+        List<String> l = new ArrayList<String>(new LinkedHashSet<String>(names));
+        Collections.sort(l);
+        this.names_ = l.toArray(new String[l.size()]);
+        this.index_ = new HashMap<String, Integer>(this.names_.length * 2);
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < this.names_.length; ++i) {
+            this.index_.put(this.names_[i], i);
+            crc.update(this.names_[i].getBytes(UTF8_));
+            crc.update('\n');
+        }
+        this.version_ = String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * Return the hash identifying the content of this catalog
+     */
+    public String getVersion() {
+        return this.version_;
+    }
+
+    public int size() {
+        return this.names_.length;
+    }
+
+    /**
+     * Tell whether a string looks like an encoded resource list, i.e. is
+     * worth being passed to {@link #decode(String)}
+     */
+    public static boolean isEncoded(final String s) {
+        return null != s && s.startsWith(PREFIX_) && s.length() > PREFIX_.length() + 9
+                && s.charAt(PREFIX_.length() + 8) == '.';
+    }
+
+    public String encode(final List<String> resourceNames) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (String s : resourceNames) {
+            Integer i = this.index_.get(s);
+            if (null != i) {
+                writeInt_(os, i + 1);
+            } else {
+                byte[] ba = s.getBytes(UTF8_);
+                writeInt_(os, 0);
+                writeInt_(os, ba.length);
+                os.write(ba, 0, ba.length);
+            }
+        }
+        StringBuilder sb = new StringBuilder(PREFIX_).append(this.version_).append('.');
+        base64_(os.toByteArray(), sb);
+        return sb.toString();
+    }
+
+    /**
+     * Decode a resource list encoded with {@link #encode(List)}
+     *
+     * @return the resource names, or <code>null</code> if the string was not
+     *         encoded with a catalog of the same content, or is malformed
+     */
+    public List<String> decode(final String s) {
+        if (!isEncoded(s)) {
+            return null;
+        }
+        int from = PREFIX_.length();
+        if (!this.version_.equals(s.substring(from, from + 8))) {
+            return null;
+        }
+        byte[] ba = unbase64_(s, from + 9);
+        if (null == ba) {
+            return null;
+        }
+        Set<String> set = new LinkedHashSet<String>();
+        int[] pos = { 0 };
+        while (pos[0] < ba.length) {
+            int i = readInt_(ba, pos);
+            if (i > 0 && i <= this.names_.length) {
+                set.add(this.names_[i - 1]);
+            } else if (0 == i) {
+                int len = readInt_(ba, pos);
+                if (len < 0 || pos[0] + len > ba.length) {
+                    return null;
+                }
+                set.add(new String(ba, pos[0], len, UTF8_));
+                pos[0] += len;
+            } else {
+                return null;
+            }
+        }
+        return new ArrayList<String>(set);
+    }
+
+    private static void writeInt_(final ByteArrayOutputStream os, int i) {
+        while ((i & ~0x7F) != 0) {
+            os.write((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        os.write(i);
+    }
+
+    /*
+     * return -1 if the input is malformed
+     */
+    private static int readInt_(final byte[] ba, final int[] pos) {
+        int i = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] >= ba.length) {
+                return -1;
+            }
+            int b = ba[pos[0]++];
+            i |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void base64_(final byte[] ba, final StringBuilder sb) {
+        int i = 0;
+        for (; i + 2 < ba.length; i += 3) {
+            int n = (ba[i] & 0xFF) << 16 | (ba[i + 1] & 0xFF) << 8 | (ba[i + 2] & 0xFF);
+            sb.append(BASE64_[n >>> 18]).append(BASE64_[(n >>> 12) & 0x3F])
+                    .append(BASE64_[(n >>> 6) & 0x3F]).append(BASE64_[n & 0x3F]);
+        }
+        int rest = ba.length - i;
+        if (rest > 0) {
+            int n = (ba[i] & 0xFF) << 16 | (rest > 1 ? (ba[i + 1] & 0xFF) << 8 : 0);
+            sb.append(BASE64_[n >>> 18]).append(BASE64_[(n >>> 12) & 0x3F]);
+            if (rest > 1) {
+                sb.append(BASE64_[(n >>> 6) & 0x3F]);
+            }
+        }
+    }
+
+    /*
+     * return null if the input is malformed
+     */
+    private static byte[] unbase64_(final String s, final int from) {
+        int len = s.length() - from;
+        if (len % 4 == 1) {
+            return null;
+        }
+        byte[] ba = new byte[len * 3 / 4];
+        int n = 0, bits = 0, j = 0;
+        for (int i = from; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            int v = c < 128 ? BASE64_INDEX_[c] : -1;
+            if (v < 0) {
+                return null;
+            }
+            n = n << 6 | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                ba[j++] = (byte) (n >>> bits);
+            }
+        }
+        return ba;
+    }
+}
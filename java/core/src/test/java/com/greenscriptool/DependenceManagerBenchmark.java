@@ -0,0 +1,241 @@
+package com.greenscriptool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures {@link DependenceManager} on large generated dependence graphs.
+ * This is not a unit test; run it with the test classpath:
+ *
+ * <pre>
+ * java com.greenscriptool.DependenceManagerBenchmark [-threads n] [nodes ...]
+ * </pre>
+ *
+ * Generated graphs look like real resource sets: every resource depends on
+ * one to four others declared before it, picked by preferential attachment,
+ * so that a few core libraries get most dependents. One resource in ten is
+ * declared with an inline declaration such as <code>a&lt;b&lt;c</code>, and
+ * a handful of resources make the default set.
+ *
+ * For each graph size the suite reports:
+ * <ul>
+ * <li>construction from properties</li>
+ * <li>comprehend with and without the default set, with the comprehend cache
+ * missing every time, and with repeated requests served by the cache</li>
+ * <li>addDependency with new edges</li>
+ * <li>processInlineDependency with new edges while other threads keep
+ * comprehending</li>
+ * </ul>
+ * The numbers of the same run are comparable with each other only; use them
+ * to spot scalability regressions between versions.
+ */
+public class DependenceManagerBenchmark {
+
+    private static final int[] DEF_SIZES = { 100, 1000, 10000, 50000 };
+    private static final int REQUESTS = 1000;
+    private static final int NAMES_PER_REQUEST = 6;
+    private static final int LOADS = 5;
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+    private static final int EDGES = 200;
+    private static final int CONCURRENT_COMPREHENDS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (int i = 0; i < args.length; ++i) {
+            if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty()) {
+            for (int n : DEF_SIZES) {
+                sizes.add(n);
+            }
+        }
+        System.out.println(String.format("%1$7s %2$10s %3$11s %4$11s %5$11s %6$11s %7$11s %8$11s",
+                "nodes", "load ms", "cmp ns", "cmp+def ns", "cached ns", "add us", "inline us",
+                "cmp|inl ns"));
+        for (int n : sizes) {
+            run_(n, threads);
+        }
+    }
+
+    /**
+     * Generate a dependence graph of the given size
+     */
+    static Properties graph(int nodes, Random r) {
+        Properties p = new Properties();
+        // one entry per dependent end of an edge, for preferential attachment
+        int[] targets = new int[nodes * 5];
+        int t = 0;
+        for (int i = 1; i < nodes; ++i) {
+            int deps = 1 + r.nextInt(4);
+            // descending, so that an inline chain n9 < n5 < n2 is acyclic too
+            SortedSet<Integer> picked = new TreeSet<Integer>(Collections.reverseOrder());
+            for (int j = 0; j < deps; ++j) {
+                int k = 0 == t || r.nextInt(3) == 0 ? r.nextInt(i) : targets[r.nextInt(t)];
+                picked.add(k);
+                targets[t++] = k;
+            }
+            List<String> l = new ArrayList<String>();
+            for (int k : picked) {
+                l.add("n" + k);
+            }
+            if (r.nextInt(10) == 0) {
+                StringBuilder sb = new StringBuilder("n" + i);
+                for (String s : l) {
+                    sb.append(" < ").append(s);
+                }
+                p.setProperty(sb.toString(), "");
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (String s : l) {
+                    if (sb.length() > 0) sb.append(",");
+                    sb.append(s);
+                }
+                p.setProperty("n" + i, sb.toString());
+            }
+        }
+        p.setProperty(IDependenceManager.DEFAULT, "n0,n1,n2");
+        return p;
+    }
+
+    static List<List<String>> requests(int nodes, Random r) {
+        List<List<String>> l = new ArrayList<List<String>>();
+        for (int i = 0; i < REQUESTS; ++i) {
+            List<String> names = new ArrayList<String>();
+            for (int j = 0; j < NAMES_PER_REQUEST - 1; ++j) {
+                names.add("n" + r.nextInt(nodes));
+            }
+            names.add("undefined" + i);
+            l.add(names);
+        }
+        return l;
+    }
+
+    /**
+     * New edges, each one respecting the existing order
+     */
+    static List<String> edges(int nodes, Random r, int count) {
+        List<String> l = new ArrayList<String>();
+        for (int i = 0; i < count; ++i) {
+            int a = 1 + r.nextInt(nodes - 1);
+            l.add("n" + a + " < n" + r.nextInt(a));
+        }
+        return l;
+    }
+
+    private static void run_(int nodes, int threads) throws Exception {
+        Random r = new Random(nodes);
+        Properties p = graph(nodes, r);
+        List<List<String>> requests = requests(nodes, r);
+
+        // construction
+        DependenceManager dm = null;
+        long load = Long.MAX_VALUE;
+        for (int i = 0; i < LOADS; ++i) {
+            long t = System.nanoTime();
+            dm = new DependenceManager(p);
+            load = Math.min(load, System.nanoTime() - t);
+        }
+
+        // comprehend, with every request missing the cache
+        dm.setComprehendCacheSize(1);
+        double cmp = comprehend_(dm, requests, false);
+        double cmpDef = comprehend_(dm, requests, true);
+
+        // comprehend of a few requests repeated, served by the cache
+        dm.setComprehendCacheSize(DependenceManager.DEF_COMPREHEND_CACHE_SIZE);
+        double cached = comprehend_(dm, requests.subList(0, 100), true);
+
+        // addDependency
+        List<String> added = edges(nodes, r, EDGES);
+        long t = System.nanoTime();
+        for (String s : added) {
+            String[] sa = s.split(" < ");
+            dm.addDependency(sa[0], Arrays.asList(sa[1]));
+        }
+        double add = (System.nanoTime() - t) / 1e3 / EDGES;
+
+        // processInlineDependency on one thread while others comprehend
+        dm.setComprehendCacheSize(1);
+        final DependenceManager dm0 = dm;
+        final List<List<String>> requests0 = requests;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong busy = new AtomicLong();
+        final AtomicLong sink = new AtomicLong();
+        int readers = Math.max(1, threads - 1);
+        Thread[] ta = new Thread[readers];
+        for (int i = 0; i < readers; ++i) {
+            final int seed = i;
+            ta[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    int s = 0;
+                    long t0 = System.nanoTime();
+                    for (int j = 0; j < CONCURRENT_COMPREHENDS; ++j) {
+                        s += dm0.comprehend(requests0.get((seed * 7919 + j) % REQUESTS), true).size();
+                    }
+                    busy.addAndGet(System.nanoTime() - t0);
+                    sink.addAndGet(s);
+                }
+            };
+            ta[i].start();
+        }
+        List<String> inlines = edges(nodes, r, EDGES);
+        start.countDown();
+        t = System.nanoTime();
+        for (String s : inlines) {
+            dm.processInlineDependency(s);
+        }
+        double inline = (System.nanoTime() - t) / 1e3 / EDGES;
+        for (Thread th : ta) {
+            th.join();
+        }
+        double concurrent = (double) busy.get() / readers / CONCURRENT_COMPREHENDS;
+
+        System.out.println(String.format(
+                "%1$7d %2$10.1f %3$11.0f %4$11.0f %5$11.0f %6$11.1f %7$11.1f %8$11.0f", nodes,
+                load / 1e6, cmp, cmpDef, cached, add, inline, concurrent));
+        if (sink.get() < 0) {
+            System.out.println(sink.get());
+        }
+    }
+
+    /**
+     * @return average comprehend time in nanoseconds
+     */
+    private static double comprehend_(DependenceManager dm, List<List<String>> requests,
+            boolean withDefault) {
+        int n = requests.size();
+        long sink = 0;
+        for (int i = 0; i < WARMUP; ++i) {
+            sink += dm.comprehend(requests.get(i % n), withDefault).size();
+        }
+        long t = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            sink += dm.comprehend(requests.get(i % n), withDefault).size();
+        }
+        long elapsed = System.nanoTime() - t;
+        if (sink < 0) {
+            System.out.println(sink);
+        }
+        return (double) elapsed / ITERATIONS;
+    }
+}
@@ -1,9 +1,18 @@
 package com.greenscriptool;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 
@@ -78,6 +87,12 @@ public class DependenceManagerTest extends BaseTest {
         v_("z,y,x,p,o,b,d,c,a", "a");
         v_("k,j,i,e", "e");
         v_("z,y,x,p,o,k,j,i,d,e", "p,e,d");
+
+        // new edges reorder descendants only
+        dm.processInlineDependency("z < q");
+        v_("q,z,y,x,p,o,b,d,c,a", "a");
+        dm.processInlineDependency("k > a");
+        v_("q,z,y,x,p,o,b,k,j,i,d,c,e,a", "e,a");
     }
     
     /*
@@ -91,6 +106,146 @@ public class DependenceManagerTest extends BaseTest {
         v_("c,b", "b", false);
         v_("y,x,default,c,b", "b", true);
         v_("y,x,default,c,b,a", "a", true);
+        v_("y,x,default,c,b", "default,b", false);
+    }
+
+    @Test
+    public void testAddDependency() throws Exception {
+        l_("indirect.properties");
+        dm.addDependency("c", Arrays.asList("d"));
+        v_("d,c,b,a", "a");
+        v_("d,c", "c,d");
+    }
+
+    @Test
+    public void testParseInlineDependency() throws Exception {
+        // the regexp used to parse inline declarations before 1.2.9
+        Pattern p = Pattern
+                .compile("(?=[\\s,;]+|(?<![\\w\\/\\-\\.:])([\\w\\/\\-\\.:]+\\s*[<>]\\s*[\\w\\/\\-\\.:]+))");
+        String[] sa = { "a<b<c", "x > y > z", "a, b < c; d", "a <<b", "a<>b", "a < b c > d",
+                "ab=xy<z,o", "a< (b", " a\t<\nb ", "<a", "a>", "a<b<c>d>e",
+                "http://ahost.com/something.js > http://zbc-1.com.au/some/path/to/x19-v1.0.js < y < z < a > b > c > d" };
+        for (String s : sa) {
+            StringBuilder expected = new StringBuilder();
+            Matcher m = p.matcher(" " + s);
+            while (m.find()) {
+                String g = m.group(1);
+                if (null != g) {
+                    String[] relation = g.split("[<>]");
+                    String a = relation[0].trim(), b = relation[1].trim();
+                    expected.append(g.indexOf('<') > -1 ? a + "<" + b : b + "<" + a).append(";");
+                }
+            }
+            StringBuilder actual = new StringBuilder();
+            for (String[] edge : DependenceManager.parseInline_(s)) {
+                actual.append(edge[0]).append("<").append(edge[1]).append(";");
+            }
+            assertEquals(s, expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testRedundantInlineDependency() throws Exception {
+        DependenceManager d = getDM_("indirect.properties");
+        dm = d;
+        dm.comprehend("a");
+        dm.processInlineDependency("a < c");
+        dm.processInlineDependency("b<c");
+        dm.comprehend("a");
+        // graph not changed, thus comprehend cache not dropped
+        assertEquals(1, d.getComprehendCacheStats().getHitCount());
+        dm.processInlineDependency("c < x");
+        v_("x,c,b,a", "a");
+    }
+
+    @Test
+    public void testEmptyInlineDependency() throws Exception {
+        l_("indirect.properties");
+        dm.processInlineDependency(null);
+        dm.processInlineDependency(" ");
+        v_("c,b,a", "a");
+    }
+
+    @Test
+    public void testWriteAndReadGraph() throws Exception {
+        DependenceManager d = getDM_("complex.properties");
+        d.processInlineDependency("z < q");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        d.writeGraph(os, 42L);
+        byte[] ba = os.toByteArray();
+
+        assertNull(DependenceManager.readGraph(new ByteArrayInputStream(ba), 43L));
+        dm = DependenceManager.readGraph(new ByteArrayInputStream(ba), 42L);
+        v_("q,z,y,x,p,o,b,d,c,a", "a");
+        v_("q,z,y,x,p,o,k,j,i,d,e", "p,e,d");
+        dm.processInlineDependency("k > a");
+        v_("q,z,y,x,p,o,b,k,j,i,d,c,e,a", "e,a");
+
+        ba[ba.length - 9] ^= 1;
+        try {
+            DependenceManager.readGraph(new ByteArrayInputStream(ba), 42L);
+            fail("corrupted graph expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAddDependenciesAtomic() throws Exception {
+        l_("indirect.properties");
+        Map<String, List<String>> m = new LinkedHashMap<String, List<String>>();
+        m.put("x", Arrays.asList("y"));
+        m.put("c", Arrays.asList("a"));
+        try {
+            dm.addDependencies(m);
+            fail("circular dependence expected");
+        } catch (CircularDependenceException e) {
+            // expected
+        }
+        v_("x", "x");
+        v_("c,b,a", "a");
+    }
+
+    @Test
+    public void testConcurrentInlineDependency() throws Exception {
+        l_("indirect.properties");
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final int t = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; ++j) {
+                            String s = "t" + t + "x" + j;
+                            dm.processInlineDependency(s + " < a");
+                            List<String> l = dm.comprehend(s);
+                            assertEquals(Arrays.asList("c", "b", "a", s), l);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void testComprehendMemoized() throws Exception {
+        DependenceManager d = getDM_("indirect.properties");
+        dm = d;
+        List<String> l = dm.comprehend("a", true);
+        assertSame(l, dm.comprehend("a", true));
+        assertNotSame(l, dm.comprehend("a", false));
+        assertEquals(1, d.getComprehendCacheStats().getHitCount());
+        dm.addDependency("c", Arrays.asList("d"));
+        v_("d,c,b,a", "a", true);
     }
     
     /*
@@ -103,6 +258,29 @@ public class DependenceManagerTest extends BaseTest {
     public void testCircularDependencies() throws Exception {
        l_("circular.properties");
     }
+
+    @Test
+    public void testAllCircularDependenciesReported() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("a", "b");
+        p.setProperty("b", "c");
+        p.setProperty("c", "a");
+        p.setProperty("x", "y");
+        p.setProperty("y", "x,z");
+        p.setProperty("z", "");
+        p.setProperty("o", "a,z");
+        try {
+            new DependenceManager(p);
+            fail("circular dependence expected");
+        } catch (CircularDependenceException e) {
+            List<List<String>> cycles = e.getCycles();
+            assertEquals(2, cycles.size());
+            for (List<String> cycle : cycles) {
+                assertEquals(cycle.get(0), cycle.get(cycle.size() - 1));
+                assertTrue(cycle.size() == 3 || cycle.size() == 4);
+            }
+        }
+    }
     
     @Test
     public void testInlineDependencyDeclaration() throws Exception {
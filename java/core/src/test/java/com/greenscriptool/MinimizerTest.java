@@ -1,14 +1,29 @@
 package com.greenscriptool;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Scanner;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.greenscriptool.utils.BufferResource;
+import com.greenscriptool.utils.FileResource;
+import com.greenscriptool.utils.IndexedFileLocator;
+import com.greenscriptool.utils.ResourceCatalog;
+
 public class MinimizerTest extends BaseTest {
     protected Minimizer jm;
     protected Minimizer cm;
@@ -136,6 +151,357 @@ public class MinimizerTest extends BaseTest {
         p_("a,b,faked", jm);
     }
     
+    @Test
+    public void testProcessCacheBounded() {
+        jm.enableDisableMinimize(true);
+        jm.enableDisableCache(true);
+        jm.setProcessCacheSize(1);
+        p_("a,b", jm);
+        p_("a,b", jm);
+        assertEquals(1, jm.getProcessCacheStats().getHitCount());
+        p_("a,/c", jm);
+        assertEquals(1, jm.getProcessCacheStats().getEvictionCount());
+        assertEquals(1, jm.getProcessCacheStats().getSize());
+    }
+    
+    @Test
+    public void testProcessWithIndexedFileLocator() {
+        IndexedFileLocator fl = new IndexedFileLocator(FileResource.defFileLocator);
+        fl.addDir(rootDir, rootDir.getAbsolutePath());
+        fl.rebuild();
+        jm.setFileLocator(fl);
+        v_("/js/a.js,/js/b.js,/public/c.js", "a,b,/c", jm);
+        v_("/js/a.js", "a,faked", jm);
+        assertNull(fl.locate(new File(jsDir, "faked.js").getAbsolutePath()));
+    }
+    
+    @Test
+    public void testProcessInlineCached() {
+        jm.enableDisableProcessInline(true);
+        String s = jm.processInline("var a = 1;");
+        assertEquals(s, jm.processInline("var a = 1;"));
+        assertEquals("", jm.processInline(""));
+        assertEquals(1, jm.getInlineCacheStats().getHitCount());
+        assertEquals(1, jm.getInlineCacheStats().getSize());
+    }
+    
+    @Test
+    public void testMetrics() {
+        jm.enableDisableMinimize(true);
+        jm.enableDisableCache(true);
+        MinimizerMetrics m = jm.getMetrics();
+        p_("a,b", jm);
+        p_("b", jm);
+        assertEquals(2, m.getBuildCount());
+        assertEquals(2, m.getFileCacheMissCount());
+        jm.enableDisableCompress(true);
+        p_("a,b", jm);
+        assertEquals(3, m.getBuildCount());
+        assertEquals(2, m.getCompressionCount());
+        assertTrue(m.getCompressorInput() > 0);
+        m.reset();
+        assertEquals(0, m.getBuildCount());
+    }
+    
+    @Test
+    public void testBuildListener() {
+        jm.enableDisableMinimize(true);
+        final List<String> events = new ArrayList<String>();
+        BuildHistogram h = new BuildHistogram();
+        jm.addBuildListener(h);
+        jm.addBuildListener(new IBuildListener() {
+            @Override
+            public void onStage(Stage stage, String bundle, String file, long nanos) {
+                events.add(stage + ":" + bundle + ":" + (null == file ? null : new File(file).getName()));
+            }
+
+            @Override
+            public void onBuild(String bundle, List<String> resourceNames, long nanos) {
+                events.add("build:" + bundle + ":" + resourceNames);
+            }
+        });
+        p_("a,b", jm);
+        String key = l.get(0).substring(cacheUrlPath.length() + 1);
+        assertTrue(events.contains("READ:" + key + ":a.js"));
+        assertTrue(events.contains("READ:" + key + ":b.js"));
+        assertEquals("build:" + key + ":[a, b]", events.get(events.size() - 1));
+        assertEquals(1, h.getBuildCount());
+        assertEquals(2, h.getCount(IBuildListener.Stage.READ));
+        h.reset();
+        assertEquals(0, h.getBuildCount());
+    }
+    
+    @Test
+    public void testRebuildLog() {
+        jm.enableDisableMinimize(true);
+        jm.enableDisableCache(true);
+        RebuildLog log = jm.getRebuildLog();
+        log.clear();
+        p_("a,b", jm);
+        p_("a,b", jm);
+        assertEquals(1, log.getEntries().size());
+        RebuildLog.Entry e = log.getEntries().get(0);
+        assertEquals(RebuildLog.Reason.NEW, e.getReason());
+        assertEquals(l.get(0), cacheUrlPath + "/" + e.getBundle());
+        assertEquals(Arrays.asList("a", "b"), e.getResourceNames());
+        
+        jm.enableDisableCompress(true);
+        p_("a,b", jm);
+        e = log.getEntries().get(0);
+        assertEquals(RebuildLog.Reason.CLEARED, e.getReason());
+        assertEquals("compress enabled", e.getTrigger());
+        
+        File f = new File(jsDir, "a.js");
+        long lm = f.lastModified();
+        assertTrue(f.setLastModified(lm + 2000));
+        try {
+            jm.checkCache();
+            p_("a,b", jm);
+        } finally {
+            f.setLastModified(lm);
+        }
+        e = log.getEntries().get(0);
+        assertEquals(RebuildLog.Reason.MODIFIED, e.getReason());
+        assertEquals(f.getPath(), e.getTrigger());
+        assertEquals(3, log.getEntries().size());
+        
+        log.setCapacity(2);
+        assertEquals(2, log.getEntries().size());
+        assertEquals(RebuildLog.Reason.MODIFIED, log.getEntries().get(0).getReason());
+        assertEquals(1, log.getCount(RebuildLog.Reason.NEW));
+    }
+    
+    @Test
+    public void testResourcesParam() throws Exception {
+        jm.enableDisableMinimize(true);
+        jm.setResourcesParam("r");
+        RenderSession sess = new RenderSession(jm, new DependenceManager(new Properties()),
+                ResourceType.JS);
+        l = sess.output("b,a,/c", false, false, null, null);
+        String url = l.get(0);
+        String key = url.substring(cacheUrlPath.length() + 1, url.indexOf('?'));
+        String r = URLDecoder.decode(url.substring(url.indexOf("?r=") + 3), "UTF-8");
+        assertTrue(ResourceCatalog.isEncoded(r));
+        // a byte for each of /js/b.js and /js/a.js, in the catalog, then 14
+        // for the literal /public/c.js, base64 encoded
+        assertEquals("v1.12345678.".length() + 22, r.length());
+        assertEquals(key, jm.minimize(r).getKey());
+        // names as encoded before 1.2.9 are still accepted
+        assertNotNull(jm.minimize("b,a,/c"));
+        // encoded with a different catalog
+        ResourceCatalog other = new ResourceCatalog(Arrays.asList("/js/a.js"));
+        assertNull(jm.minimize(other.encode(Arrays.asList("/js/a.js"))));
+    }
+    
+    @Test
+    public void testResourcesParamOfAllRoots() throws Exception {
+        // a module root with its own resource dir
+        File module = new File(cacheDir, "module");
+        File js = new File(module, "javascripts");
+        assertTrue(js.isDirectory() || js.mkdirs());
+        File d = new File(js, "d.js");
+        FileWriter w = new FileWriter(d);
+        w.write("var d = 4;");
+        w.close();
+        try {
+            IndexedFileLocator fl = new IndexedFileLocator(FileResource.defFileLocator);
+            fl.addDir(rootDir, rootDir.getAbsolutePath());
+            fl.addDir(module, rootDir.getAbsolutePath());
+            fl.rebuild();
+            jm.setFileLocator(fl);
+            jm.enableDisableMinimize(true);
+            jm.setResourcesParam("r");
+            RenderSession sess = new RenderSession(jm, new DependenceManager(new Properties()),
+                    ResourceType.JS);
+            l = sess.output("a,d", false, false, null, null);
+            String url = l.get(0);
+            String key = url.substring(cacheUrlPath.length() + 1, url.indexOf('?'));
+            String r = URLDecoder.decode(url.substring(url.indexOf("?r=") + 3), "UTF-8");
+            // a byte for each name, both in the catalog
+            assertEquals("v1.12345678.".length() + 3, r.length());
+            assertEquals(key, jm.minimize(r).getKey());
+        } finally {
+            d.delete();
+            js.delete();
+            module.delete();
+        }
+    }
+    
+    @Test
+    public void testProcessStaticCached() {
+        File f = new File(jsDir, "a.js");
+        String s = jm.processStatic(f);
+        assertEquals(s, jm.processStatic(f));
+        assertEquals(1, jm.getStaticCacheStats().getHitCount());
+        long l = f.lastModified();
+        assertTrue(f.setLastModified(l + 2000));
+        try {
+            jm.processStatic(f);
+            assertEquals(1, jm.getStaticCacheStats().getHitCount());
+            assertEquals(2, jm.getStaticCacheStats().getSize());
+        } finally {
+            f.setLastModified(l);
+        }
+    }
+    
+    @Test
+    public void testExternalizeInline() throws IOException {
+        assertNull(jm.externalizeInline("var a = 1;"));
+        jm.enableDisableExternalizeInline(true);
+        jm.setExternalizeInlineThreshold(20);
+        assertNull(jm.externalizeInline("var a = 1;"));
+        String s = "var a = 1; var b = 2; var c = 3;";
+        String url = jm.externalizeInline(s);
+        assertTrue(url.startsWith(cacheUrlPath));
+        assertEquals(url, jm.externalizeInline(s));
+        File f = new File(cacheDir, url.substring(cacheUrlPath.length() + 1));
+        Scanner scanner = new Scanner(f);
+        assertEquals(s, scanner.useDelimiter("\\A").next().trim());
+        scanner.close();
+        // written again once deleted
+        assertTrue(f.delete());
+        assertEquals(url, jm.externalizeInline(s));
+        assertTrue(f.exists());
+        assertFalse(url.equals(jm.externalizeInline(s + " var d = 4;")));
+    }
+    
+    @Test
+    public void testSessionOutputCached() {
+        jm.enableDisableCache(true);
+        Properties p = new Properties();
+        p.setProperty("b", "a");
+        IDependenceManager d = new DependenceManager(p);
+        OutputCache c = new OutputCache();
+        for (int i = 0; i < 2; ++i) {
+            RenderSession sess = new RenderSession(jm, d, ResourceType.JS);
+            sess.setOutputCache(c);
+            sess.declare("b", null, null);
+            eq("/js/a.js,/js/b.js", sess.output(null, false, true, null, null));
+            // loaded already
+            assertTrue(sess.output("a", true, false, null, null).isEmpty());
+        }
+        assertEquals(2, c.getStats().getHitCount());
+        
+        // graph changed
+        d.addDependency("a", Arrays.asList("/c"));
+        RenderSession sess = new RenderSession(jm, d, ResourceType.JS);
+        sess.setOutputCache(c);
+        sess.declare("b", null, null);
+        eq("/public/c.js,/js/a.js,/js/b.js", sess.output(null, false, true, null, null));
+        assertEquals(2, c.getStats().getHitCount());
+    }
+    
+    @Test
+    public void testSessionTimings() {
+        jm.enableDisableMinimize(true);
+        jm.enableDisableCache(true);
+        IDependenceManager d = new DependenceManager(new Properties());
+        OutputCache c = new OutputCache();
+        RenderSession sess = new RenderSession(jm, d, ResourceType.JS);
+        sess.setOutputCache(c);
+        RenderTimings t = sess.getTimings();
+        assertTrue(t.isEmpty());
+        sess.output("a,b", false, false, null, null);
+        assertEquals(1, t.getOutputCount());
+        assertEquals(0, t.getOutputCacheHitCount());
+        assertTrue(t.getBuildNanos() > 0);
+        assertTrue(t.getProcessNanos() >= t.getBuildNanos());
+        
+        sess.reset(jm, d);
+        assertTrue(t.isEmpty());
+        sess.output("a,b", false, false, null, null);
+        assertEquals(1, t.getOutputCacheHitCount());
+        assertEquals(0, t.getBuildNanos());
+        StringBuilder sb = new StringBuilder();
+        t.appendServerTiming(sb, "gs-js");
+        assertTrue(sb.toString().startsWith("gs-js;dur="));
+        assertTrue(sb.toString().contains("desc=\"1 outputs, 1 cached\""));
+        assertFalse(sb.toString().contains("gs-js-build"));
+        // a comma would separate metrics
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            assertEquals("1.50", RenderTimings.duration(1500000));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+    
+    @Test
+    public void testSessionAttributes() {
+        Properties p = new Properties();
+        p.setProperty("/c", "b");
+        p.setProperty("b", "a");
+        IDependenceManager d = new DependenceManager(p);
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("b", "defer");
+        RenderSession sess = new RenderSession(jm, d, ResourceType.JS);
+        sess.setAttributes(attributes);
+        l = sess.output("/c", true, false, null, null);
+        eq("/js/a.js,/js/b.js,/public/c.js", l);
+        assertNull(sess.getAttribute("/js/a.js"));
+        assertEquals("defer", sess.getAttribute("/js/b.js"));
+        assertEquals(l, sess.getOutputs());
+        
+        // bundles do not mix resources with different attributes
+        jm.enableDisableMinimize(true);
+        sess.reset(jm, d);
+        l = sess.output("/c", true, false, null, null);
+        assertEquals(3, l.size());
+        assertEquals("defer", sess.getAttribute(l.get(1)));
+        assertNull(sess.getAttribute(l.get(2)));
+    }
+    
+    @Test
+    public void testSessionMediaAndBrowser() {
+        RenderSession sess = new RenderSession(cm, new DependenceManager(new Properties()),
+                ResourceType.CSS);
+        assertFalse(sess.hasDeclared());
+        sess.declare("a", "Screen", null);
+        sess.declare("b", " screen", "IE  6");
+        sess.declare("c", "print", "ie 6");
+        assertTrue(sess.hasDeclared());
+        assertEquals(new HashSet<String>(Arrays.asList("Screen")), sess.getMedias(null));
+        assertEquals(new HashSet<String>(Arrays.asList("IE 6")), sess.getBrowsers());
+        assertEquals(new HashSet<String>(Arrays.asList("Screen", "print")), sess.getMedias("IE 6"));
+        assertTrue(sess.isDefault(null));
+        assertFalse(sess.isDefault("ie 6"));
+    }
+    
+    @Test
+    public void testSessionOutputsForEveryPage() {
+        IDependenceManager d = new DependenceManager(new Properties());
+        RenderSession sess = new RenderSession(cm, d, ResourceType.CSS);
+        assertFalse(sess.output("a", false, false, "print", null).isEmpty());
+        assertFalse(sess.output("b", false, false, null, "IE 6").isEmpty());
+        assertTrue(sess.getOutputs().isEmpty());
+        
+        sess.reset(cm, d);
+        l = sess.output("a", false, false, "Screen", null);
+        l.addAll(sess.output("b", false, false, null, null));
+        assertEquals(l, sess.getOutputs());
+    }
+    
+    @Test
+    public void testBufferWritten() throws IOException {
+        final List<BufferResource> written = new ArrayList<BufferResource>();
+        BufferResource r = new BufferResource("k.js") {
+            @Override
+            protected void written() {
+                written.add(this);
+            }
+        };
+        String etag = r.getETag();
+        assertEquals(0, r.getBytes().length);
+        Writer w = r.getWriter();
+        w.write("var a;");
+        assertTrue(written.isEmpty());
+        w.close();
+        assertEquals(Arrays.asList(r), written);
+        assertFalse(etag.equals(r.getETag()));
+        assertEquals("var a;", new String(r.getBytes(), "UTF-8"));
+    }
+    
     @Test
     public void testLessEngine() {
         
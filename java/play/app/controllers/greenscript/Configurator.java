@@ -34,7 +34,10 @@ public class Configurator extends Controller {
         String jsDebug = gs.jsDebugString();
         String cssDebug = gs.cssDebugString();
         
-        render(cssDeps, jsDeps, minConf, jsDebug, cssDebug);
+        String metrics = gs.getStatus();
+        String rebuilds = gs.getRebuildTrace();
+        
+        render(cssDeps, jsDeps, minConf, jsDebug, cssDebug, metrics, rebuilds);
     }
 
     public static void update(boolean minimize, boolean compress, boolean cache, boolean inMemoryCache) {
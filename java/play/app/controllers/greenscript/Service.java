@@ -1,25 +1,24 @@
 package controllers.greenscript;
 
-import java.util.Map;
-
 import play.modules.greenscript.GreenScriptPlugin;
 import play.mvc.Controller;
-import play.mvc.Http;
 import play.mvc.Scope.Flash;
 
+import com.greenscriptool.ResourceType;
+import com.greenscriptool.utils.BufferResource;
+
 public class Service extends Controller {
     
     public static void getInMemoryCache(String key) {
-        String content = GreenScriptPlugin.getInstance().getInMemoryFileContent(key, params.get(GreenScriptPlugin.RESOURCES_PARAM));
-        notFoundIfNull(content);
-        final long l = System.currentTimeMillis();
-        final String etag = "\"" + l + "-" + key.hashCode() + "\"";
-        response.cacheFor(etag, "100d", l);
+        GreenScriptPlugin gs = GreenScriptPlugin.getInstance();
+        BufferResource r = gs.getInMemoryFile(key, params.get(GreenScriptPlugin.RESOURCES_PARAM));
+        notFoundIfNull(r);
         Flash.current().keep();
-        
-        Map<String, Http.Header> headers = request.headers;
-        if (headers.containsKey("if-none-match") && headers.containsKey("if-modified-since")) {
-            response.status = Http.StatusCode.NOT_MODIFIED;
+
+        // bundles are rebuilt under the same key when checkCache finds a
+        // resource changed, thus are only immutable if that never happens
+        if (gs.notModified(request, response, r.getETag(), r.getLastModified(),
+                gs.isImmutable(key.endsWith(".js") ? ResourceType.JS : ResourceType.CSS))) {
             return;
         }
  
@@ -29,7 +28,7 @@ public class Service extends Controller {
             response.setContentTypeIfNotSet("text/css");
         }
         
-        renderText(content);
+        renderText(r.toString());
     }
 
 }
@@ -0,0 +1,179 @@
+package play.modules.greenscript;
+
+import java.util.Map;
+
+import com.greenscriptool.DependenceManager;
+import com.greenscriptool.Minimizer;
+import com.greenscriptool.MinimizerMetrics;
+import com.greenscriptool.ResourceType;
+import com.greenscriptool.utils.LRUCache;
+
+/**
+ * The {@link GreenScriptMetricsMBean} implementation. Reads the current
+ * minimizer, dependence manager and caches of the plugin on each call, thus
+ * stays valid when they get reinitialized
+ *
+ * @since 1.2.9
+ */
+public class GreenScriptMetrics implements GreenScriptMetricsMBean {
+
+    private static final int HOT_BUNDLES_ = 20;
+
+    private final GreenScriptPlugin gs_;
+    private final ResourceType type_;
+
+    public GreenScriptMetrics(final GreenScriptPlugin plugin, final ResourceType type) {
+        this.gs_ = plugin;
+        this.type_ = type;
+    }
+
+    private Minimizer m_() {
+        return this.gs_.getMinimizer(this.type_);
+    }
+
+    private MinimizerMetrics metrics_() {
+        return this.m_().getMetrics();
+    }
+
+    @Override
+    public long getBuildCount() {
+        return this.metrics_().getBuildCount();
+    }
+
+    @Override
+    public long getBuildTimeMillis() {
+        return this.metrics_().getBuildTimeMillis();
+    }
+
+    @Override
+    public double getAverageBuildTimeMillis() {
+        return this.metrics_().getAverageBuildTimeMillis();
+    }
+
+    @Override
+    public long getMaxBuildTimeMillis() {
+        return this.metrics_().getMaxBuildTimeMillis();
+    }
+
+    @Override
+    public long getFileCacheHitCount() {
+        return this.metrics_().getFileCacheHitCount();
+    }
+
+    @Override
+    public long getFileCacheMissCount() {
+        return this.metrics_().getFileCacheMissCount();
+    }
+
+    @Override
+    public long getBufferHitCount() {
+        return this.gs_.getBufferHitCount(this.type_);
+    }
+
+    @Override
+    public long getBufferMissCount() {
+        return this.gs_.getBufferMissCount(this.type_);
+    }
+
+    @Override
+    public String getCompressor() {
+        return this.m_().getCompressor().getClass().getSimpleName();
+    }
+
+    @Override
+    public long getCompressionCount() {
+        return this.metrics_().getCompressionCount();
+    }
+
+    @Override
+    public long getCompressorInput() {
+        return this.metrics_().getCompressorInput();
+    }
+
+    @Override
+    public long getCompressorOutput() {
+        return this.metrics_().getCompressorOutput();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        return this.metrics_().getCompressionRatio();
+    }
+
+    private LRUCache.Stats comprehendStats_() {
+        return ((DependenceManager) this.gs_.getDependenceManager(this.type_))
+                .getComprehendCacheStats();
+    }
+
+    @Override
+    public double getComprehendCacheHitRate() {
+        return this.comprehendStats_().getHitRate();
+    }
+
+    @Override
+    public int getComprehendCacheSize() {
+        return this.comprehendStats_().getSize();
+    }
+
+    @Override
+    public double getProcessCacheHitRate() {
+        return this.m_().getProcessCacheStats().getHitRate();
+    }
+
+    @Override
+    public int getProcessCacheSize() {
+        return this.m_().getProcessCacheStats().getSize();
+    }
+
+    @Override
+    public double getOutputCacheHitRate() {
+        return this.gs_.getOutputCache(this.type_).getStats().getHitRate();
+    }
+
+    @Override
+    public int getOutputCacheSize() {
+        return this.gs_.getOutputCache(this.type_).getStats().getSize();
+    }
+
+    @Override
+    public double getInlineCacheHitRate() {
+        return this.m_().getInlineCacheStats().getHitRate();
+    }
+
+    @Override
+    public int getInlineCacheSize() {
+        return this.m_().getInlineCacheStats().getSize();
+    }
+
+    @Override
+    public double getStaticCacheHitRate() {
+        return this.m_().getStaticCacheStats().getHitRate();
+    }
+
+    @Override
+    public int getStaticCacheSize() {
+        return this.m_().getStaticCacheStats().getSize();
+    }
+
+    @Override
+    public long getCachedTextSize() {
+        return this.m_().getCachedTextSize();
+    }
+
+    @Override
+    public String[] getHotBundles() {
+        Map<String, Long> m = this.gs_.getHotBundles(this.type_, HOT_BUNDLES_);
+        String[] sa = new String[m.size()];
+        int i = 0;
+        for (Map.Entry<String, Long> e : m.entrySet()) {
+            sa[i++] = e.getKey() + ": " + e.getValue();
+        }
+        return sa;
+    }
+
+    @Override
+    public void resetMetrics() {
+        this.m_().getMetrics().reset();
+        this.gs_.resetMetrics(this.type_);
+    }
+}
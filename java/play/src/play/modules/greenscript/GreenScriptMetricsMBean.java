@@ -0,0 +1,69 @@
+package play.modules.greenscript;
+
+/**
+ * JMX view of the metrics of GreenScript for a resource type, registered
+ * as <code>greenscript:type=Metrics,name=js</code> and
+ * <code>greenscript:type=Metrics,name=css</code>
+ *
+ * @since 1.2.9
+ */
+public interface GreenScriptMetricsMBean {
+
+    long getBuildCount();
+
+    long getBuildTimeMillis();
+
+    double getAverageBuildTimeMillis();
+
+    long getMaxBuildTimeMillis();
+
+    long getFileCacheHitCount();
+
+    long getFileCacheMissCount();
+
+    long getBufferHitCount();
+
+    long getBufferMissCount();
+
+    String getCompressor();
+
+    long getCompressionCount();
+
+    long getCompressorInput();
+
+    long getCompressorOutput();
+
+    double getCompressionRatio();
+
+    double getComprehendCacheHitRate();
+
+    int getComprehendCacheSize();
+
+    double getProcessCacheHitRate();
+
+    int getProcessCacheSize();
+
+    double getOutputCacheHitRate();
+
+    int getOutputCacheSize();
+
+    double getInlineCacheHitRate();
+
+    int getInlineCacheSize();
+
+    double getStaticCacheHitRate();
+
+    int getStaticCacheSize();
+
+    /**
+     * Return an estimate of the memory, in bytes, held by cached text
+     */
+    long getCachedTextSize();
+
+    /**
+     * Return the most requested bundles with their request counts
+     */
+    String[] getHotBundles();
+
+    void resetMetrics();
+}
@@ -0,0 +1,1816 @@
+package play.modules.greenscript;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+
+import com.google.gson.JsonObject;
+
+import play.Logger;
+import play.Play;
+import play.Play.Mode;
+import play.PlayPlugin;
+import play.cache.Cache;
+import play.exceptions.NoRouteFoundException;
+import play.exceptions.UnexpectedException;
+import play.jobs.Job;
+import play.jobs.JobsPlugin;
+import play.libs.Time;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Http.Request;
+import play.mvc.Http.Response;
+import play.mvc.Router;
+import play.mvc.Scope.Flash;
+import play.mvc.results.NotFound;
+import play.mvc.results.RenderStatic;
+import play.mvc.results.Result;
+import play.templates.Template;
+import play.utils.Utils;
+import play.vfs.VirtualFile;
+
+import com.greenscriptool.BuildHistogram;
+import com.greenscriptool.DependenceManager;
+import com.greenscriptool.IDependenceManager;
+import com.greenscriptool.IFileLocator;
+import com.greenscriptool.IMinimizer;
+import com.greenscriptool.IRenderSession;
+import com.greenscriptool.IResource;
+import com.greenscriptool.IRouteMapper;
+import com.greenscriptool.Minimizer;
+import com.greenscriptool.OutputCache;
+import com.greenscriptool.RebuildLog;
+import com.greenscriptool.RenderSession;
+import com.greenscriptool.RenderTimings;
+import com.greenscriptool.ResourceType;
+import com.greenscriptool.utils.BufferResource;
+import com.greenscriptool.utils.IBufferLocator;
+import com.greenscriptool.utils.IndexedFileLocator;
+import com.greenscriptool.utils.LRUCache;
+
+/**
+ * Define a Playframework plugin
+ * 
+ * @author greenlaw110@gmail.com
+ * @version 1.2.9 2012-06-05 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/50 Support
+ *          configure js compressor
+ * @version 1.2.8 2012-02-16 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/36 support
+ *          coffeescript use google closure to compress javascript resource
+ * @version 1.2.7 2012-01-31 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/30 Add tags for
+ *          rythm engine
+ * @version 1.2.6, 2011-09-04 support LESS, fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/18 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/19 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/21 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/22 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/23 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/24 fix bug:
+ *          https://github.com/greenlaw110/greenscript/issues/27
+ * @version 1.2.5, 2011-08-07 support in-memory cache
+ * @version 1.2.1, 2011-01-20 1. support reverse dependency declaration, e.g: *
+ *          js.jquery-1.4.4-=jquery-ui.1.8.7,jquery.tmpl
+ * @version 1.2, 2010-10-16
+ */
+public class GreenScriptPlugin extends PlayPlugin {
+
+    public static final String VERSION = "1.2.9";
+
+    private static String msg_(final String msg, final Object... args) {
+        return String.format("GreenScript-" + VERSION + "> %1$s", String.format(msg, args));
+    }
+
+    private static void info_(final String msg, final Object... args) {
+        Logger.info(msg_(msg, args));
+    }
+
+    private static void trace_(final String msg, final Object... args) {
+        Logger.trace(msg_(msg, args));
+    }
+
+    private static void debug_(final String msg, final Object... args) {
+        Logger.info(msg_(msg, args));
+    }
+
+    private Minimizer jsM_;
+    private Minimizer cssM_;
+    private IDependenceManager jsD_;
+    private IDependenceManager cssD_;
+    private OutputCache jsOutput_ = new OutputCache();
+    private OutputCache cssOutput_ = new OutputCache();
+    private Map<String, String> jsAttributes_ = new HashMap<String, String>();
+    private boolean preload_;
+    private boolean serverTiming_;
+    private boolean timingLog_;
+
+    private Properties depConf_;
+    private Properties minConf_;
+
+    private HashMap<String, Long> configFiles_;
+
+    private boolean eTag_ = false;
+
+    private boolean rythmPresented_ = false;
+
+    public static final String RESOURCES_PARAM = "resources";
+
+    private static Properties defProps_;
+    static {
+        defProps_ = new Properties();
+        // file paths
+        defProps_.put("greenscript.dir.root", "/public");
+        defProps_.put("greenscript.dir.js", "javascripts");
+        defProps_.put("greenscript.dir.css", "stylesheets");
+        defProps_.put("greenscript.dir.minimized", "/public/gs");
+        // url paths
+        defProps_.put("greenscript.url.root", "/public");
+        defProps_.put("greenscript.url.js", "/public/javascripts");
+        defProps_.put("greenscript.url.css", "/public/stylesheets");
+        defProps_.put("greenscript.url.minimized", "/public/gs");
+        // operation switches
+        defProps_.setProperty("greenscript.minimize", Play.mode == Mode.PROD ? "true" : "false");
+        defProps_.setProperty("greenscript.compress", Play.mode == Mode.PROD ? "true" : "false");
+        defProps_.setProperty("greenscript.cache", Play.mode == Mode.PROD ? "true" : "false");
+        defProps_.setProperty("greenscript.cache.inmemory", "true");
+        defProps_.setProperty("greenscript.less.enabled", "false");
+        defProps_.setProperty("greenscript.coffee.enabled", "false");
+        defProps_.setProperty("greenscript.inline.process", "false");
+        defProps_.setProperty("greenscript.inline.externalize", "false");
+        defProps_.setProperty("greenscript.preload", "false");
+        defProps_.setProperty("greenscript.inline.externalize.threshold",
+                String.valueOf(Minimizer.DEF_EXTERNALIZE_INLINE_THRESHOLD));
+        defProps_.setProperty("greenscript.js.cache.check", "10s");
+        defProps_.setProperty("greenscript.css.cache.check", "10s");
+        defProps_.setProperty("greenscript.lessCompile.postMerge", "false");
+        defProps_.setProperty("greenscript.resources.param.enabled", "false");
+        defProps_.setProperty("greenscript.build.slow.threshold", "0");
+        defProps_.setProperty("greenscript.build.histogram", "false");
+        defProps_.setProperty("greenscript.timing.header", "false");
+        defProps_.setProperty("greenscript.timing.log", "false");
+        defProps_.setProperty("greenscript.rebuild.log.size", String.valueOf(RebuildLog.DEF_SIZE));
+        defProps_.setProperty("greenscript.cache.process.size",
+                String.valueOf(Minimizer.DEF_PROCESS_CACHE_SIZE));
+        defProps_.setProperty("greenscript.cache.comprehend.size",
+                String.valueOf(DependenceManager.DEF_COMPREHEND_CACHE_SIZE));
+        defProps_.setProperty("greenscript.cache.inline.size",
+                String.valueOf(DependenceManager.DEF_INLINE_CACHE_SIZE));
+        defProps_.setProperty("greenscript.cache.output.size",
+                String.valueOf(OutputCache.DEF_SIZE));
+        defProps_.setProperty("greenscript.cache.inline.process.size",
+                String.valueOf(Minimizer.DEF_INLINE_CACHE_SIZE));
+    }
+
+    public GreenScriptPlugin() {
+        // depConf_ = new Properties();
+        this.minConf_ = new Properties();
+        this.minConf_.putAll(defProps_);
+    }
+
+    @Override
+    public void onLoad() {
+        try {
+            Class.forName("com.greenlaw110.rythm.play.RythmPlugin");
+            this.rythmPresented_ = true;
+            debug_("rythm presented");
+        } catch (Exception e) {
+            // rythm template engine not presented.
+            debug_("rythm not presented");
+        }
+    }
+
+    @Override
+    public void onConfigurationRead() {
+
+        this.loadDependencies();
+
+        this.eTag_ = Play.configuration.getProperty("http.useETag", "true")
+                .equalsIgnoreCase("true");
+
+        info_("initialized");
+    }
+
+    private boolean stopRouteUpdate_ = false;
+
+    /*
+     * url path of in memory bundles served by rawInvocation, null if bundles
+     * are not in memory, or are kept in memcached, which is not to be waited
+     * for on an I/O thread
+     */
+    private volatile String rawUrlPath_ = null;
+
+    private synchronized void updateRoute_() {
+        if (this.inMemoryCache) {
+            String url = this.cacheUrlPath_();
+            this.rawUrlPath_ = "enabled".equals(Play.configuration.getProperty("memcached"))
+                    ? null : url;
+            Router.addRoute(0, "GET", url + "{key}", "greenscript.Service.getInMemoryCache", null,
+                    null);
+            Logger.debug("route added: %s handled by %s", url + "{key}",
+                    "greenscript.Service.getInMemoryCache");
+        } else {
+            this.rawUrlPath_ = null;
+            this.stopRouteUpdate_ = true;
+            Router.load(Play.ctxPath);
+            this.stopRouteUpdate_ = false;
+        }
+    }
+
+    /**
+     * Moved initialize from onApplicationStart to onRoutersLoaded because
+     * Servlet 2.4 does not allow you to get the context path from the
+     * servletcontext...
+     */
+    @Override
+    public synchronized void onRoutesLoaded() {
+        if (this.stopRouteUpdate_) {
+            return;
+        }
+        this.InitializeMinimizers();
+        this.updateRoute_();
+    }
+
+    /*
+     * whether bundles are checked for changed resources, indexed by resource
+     * type ordinal. A checked bundle gets rebuilt under the same url
+     */
+    private final boolean[] checkCache_ = { true, true };
+
+    /**
+     * Tell whether the content behind a minimized file url of the given
+     * type never changes, so that browsers need not revalidate it. Bundle
+     * urls are derived from the resource names only, thus this only holds
+     * in production with <code>greenscript.&lt;type&gt;.cache.check</code>
+     * set to <code>never</code>
+     * 
+     * @since 1.2.9
+     */
+    public boolean isImmutable(final ResourceType type) {
+        return Play.mode == Mode.PROD && !this.checkCache_[type.ordinal()];
+    }
+
+    @Override
+    public void afterApplicationStart() {
+        Properties p = Play.configuration;
+        for (ResourceType type : ResourceType.values()) {
+            final Minimizer m = type == ResourceType.JS ? this.jsM_ : this.cssM_;
+            String s = fetchProp_(p,
+                    String.format("greenscript%s.cache.check", type.getExtension()));
+            int i = "never".equalsIgnoreCase(s) ? -1 : Time.parseDuration(s);
+            this.checkCache_[type.ordinal()] = -1 != i;
+            if (-1 != i) {
+                Job<Object> j = new Job<Object>() {
+                    @Override
+                    public void doJob() {
+                        GreenScriptPlugin.this.fileLocator_.refreshIfChanged();
+                        m.checkCache();
+                    }
+                };
+                JobsPlugin.executor.scheduleWithFixedDelay(j, i, i, TimeUnit.SECONDS);
+            }
+        }
+        this.registerMBeans_();
+    }
+
+    /*
+     * provided here to avoid compilation error when Rythm Template Engine is
+     * not presented
+     */
+    private static final Template VOID_RYTHM_TMPL = new Template() {
+        @Override
+        public void compile() {
+        }
+
+        @Override
+        protected String internalRender(final Map<String, Object> args) {
+            return null;
+        }
+    };
+
+    private final Pattern P = Pattern.compile(".*tags.rythm.greenscript.*");
+
+    @Override
+    public Template loadTemplate(final VirtualFile file) {
+        if (this.rythmPresented_) {
+            return null; // let rythm to handle it
+        }
+        if (!file.exists()) {
+            return null;
+        }
+        if (this.P.matcher(file.relativePath()).matches()) {
+            return VOID_RYTHM_TMPL;
+        }
+        return null;
+    }
+
+    @Override
+    public String getStatus() {
+        if (null == this.jsM_) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("GreenScript:\n~~~~~~~~~~~~\n");
+        for (ResourceType type : ResourceType.values()) {
+            String t = type.name().toLowerCase();
+            Minimizer m = this.getMinimizer(type);
+            sb.append(t).append(" comprehend cache: ")
+                    .append(((DependenceManager) this.getDependenceManager(type))
+                            .getComprehendCacheStats()).append("\n");
+            sb.append(t).append(" process cache: ").append(m.getProcessCacheStats())
+                    .append("\n");
+            sb.append(t).append(" url cache: ").append(m.getProcessWithoutMinimizeCacheStats())
+                    .append("\n");
+            sb.append(t).append(" output cache: ").append(this.getOutputCache(type).getStats())
+                    .append("\n");
+            sb.append(t).append(" inline cache: ").append(m.getInlineCacheStats()).append("\n");
+            sb.append(t).append(" static cache: ").append(m.getStaticCacheStats()).append("\n");
+            sb.append(t).append(" cached text: ").append(m.getCachedTextSize() / 1024)
+                    .append("KB\n");
+            sb.append(t).append(" buffers: hits: ").append(this.getBufferHitCount(type))
+                    .append(", misses: ").append(this.getBufferMissCount(type)).append("\n");
+            sb.append(t).append(" minimizer: ").append(m.getMetrics()).append(", compressor: ")
+                    .append(m.getCompressor().getClass().getSimpleName()).append("\n");
+            BuildHistogram h = this.getBuildHistogram(type);
+            if (null != h) {
+                sb.append(t).append(" build stages: ").append(h).append("\n");
+            }
+            sb.append(t).append(" builds by reason: ").append(m.getRebuildLog().getCounts())
+                    .append("\n");
+            Map<String, Long> hot = this.getHotBundles(type, 10);
+            if (!hot.isEmpty()) {
+                sb.append(t).append(" hot bundles: ").append(hot).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the most recent bundle builds of each type and why they were
+     * needed, most recent first
+     * 
+     * @since 1.2.9
+     */
+    public String getRebuildTrace() {
+        if (null == this.jsM_) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (ResourceType type : ResourceType.values()) {
+            sb.append(type.name().toLowerCase()).append(" ")
+                    .append(this.getMinimizer(type).getRebuildLog()).append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public JsonObject getJsonStatus() {
+        if (null == this.jsM_) {
+            return null;
+        }
+        JsonObject o = new JsonObject();
+        for (ResourceType type : ResourceType.values()) {
+            GreenScriptMetrics gm = new GreenScriptMetrics(this, type);
+            JsonObject t = new JsonObject();
+            t.addProperty("builds", gm.getBuildCount());
+            t.addProperty("buildTimeMillis", gm.getBuildTimeMillis());
+            t.addProperty("maxBuildTimeMillis", gm.getMaxBuildTimeMillis());
+            t.addProperty("fileCacheHits", gm.getFileCacheHitCount());
+            t.addProperty("fileCacheMisses", gm.getFileCacheMissCount());
+            t.addProperty("bufferHits", gm.getBufferHitCount());
+            t.addProperty("bufferMisses", gm.getBufferMissCount());
+            t.addProperty("compressor", gm.getCompressor());
+            t.addProperty("compressorInput", gm.getCompressorInput());
+            t.addProperty("compressorOutput", gm.getCompressorOutput());
+            t.addProperty("compressionRatio", gm.getCompressionRatio());
+            t.addProperty("comprehendCacheHitRate", gm.getComprehendCacheHitRate());
+            t.addProperty("processCacheHitRate", gm.getProcessCacheHitRate());
+            t.addProperty("outputCacheHitRate", gm.getOutputCacheHitRate());
+            t.addProperty("inlineCacheHitRate", gm.getInlineCacheHitRate());
+            t.addProperty("staticCacheHitRate", gm.getStaticCacheHitRate());
+            t.addProperty("cachedTextSize", gm.getCachedTextSize());
+            JsonObject hot = new JsonObject();
+            for (Map.Entry<String, Long> e : this.getHotBundles(type, 10).entrySet()) {
+                hot.addProperty(e.getKey(), e.getValue());
+            }
+            t.add("hotBundles", hot);
+            o.add(type.name().toLowerCase(), t);
+        }
+        return o;
+    }
+
+    public Minimizer getMinimizer(final ResourceType type) {
+        return type == ResourceType.JS ? this.jsM_ : this.cssM_;
+    }
+
+    public IDependenceManager getDependenceManager(final ResourceType type) {
+        return type == ResourceType.JS ? this.jsD_ : this.cssD_;
+    }
+
+    public OutputCache getOutputCache(final ResourceType type) {
+        return type == ResourceType.JS ? this.jsOutput_ : this.cssOutput_;
+    }
+
+    /*
+     * lookups of in memory bundles, indexed by resource type ordinal
+     */
+    private final AtomicLong[] bufferHits_ = { new AtomicLong(), new AtomicLong() };
+    private final AtomicLong[] bufferMisses_ = { new AtomicLong(), new AtomicLong() };
+
+    /*
+     * stage latencies, indexed by resource type ordinal, null unless
+     * greenscript.build.histogram is set
+     */
+    private final BuildHistogram[] histograms_ = new BuildHistogram[2];
+
+    /**
+     * Return the latencies of the build stages of the given type, or
+     * <code>null</code> if <code>greenscript.build.histogram</code> is not
+     * enabled
+     * 
+     * @since 1.2.9
+     */
+    public BuildHistogram getBuildHistogram(final ResourceType type) {
+        return this.histograms_[type.ordinal()];
+    }
+
+    public long getBufferHitCount(final ResourceType type) {
+        return this.bufferHits_[type.ordinal()].get();
+    }
+
+    public long getBufferMissCount(final ResourceType type) {
+        return this.bufferMisses_[type.ordinal()].get();
+    }
+
+    private static final int MAX_SERVED_ = 1000;
+
+    /*
+     * number of requests of each bundle served from memory or from the
+     * minimized dir. Bundles requested once this map is full are not counted
+     */
+    private ConcurrentMap<String, AtomicLong> served_ = new ConcurrentHashMap<String, AtomicLong>();
+
+    private void served_(final String key) {
+        AtomicLong n = this.served_.get(key);
+        if (null == n) {
+            if (this.served_.size() >= MAX_SERVED_) {
+                return;
+            }
+            AtomicLong n0 = this.served_.putIfAbsent(key, n = new AtomicLong());
+            if (null != n0) {
+                n = n0;
+            }
+        }
+        n.incrementAndGet();
+    }
+
+    /**
+     * Return the most requested bundles of a type with their request counts,
+     * the most requested first
+     * 
+     * @since 1.2.9
+     */
+    public Map<String, Long> getHotBundles(final ResourceType type, final int max) {
+        List<Map.Entry<String, Long>> l = new ArrayList<Map.Entry<String, Long>>();
+        String ext = type.getExtension();
+        for (Map.Entry<String, AtomicLong> e : this.served_.entrySet()) {
+            if (e.getKey().endsWith(ext)) {
+                l.add(new AbstractMap.SimpleEntry<String, Long>(e.getKey(), e.getValue().get()));
+            }
+        }
+        Collections.sort(l, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(final Map.Entry<String, Long> o1, final Map.Entry<String, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        Map<String, Long> m = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < l.size() && i < max; ++i) {
+            m.put(l.get(i).getKey(), l.get(i).getValue());
+        }
+        return m;
+    }
+
+    /**
+     * Reset the counters kept by the plugin for a resource type
+     * 
+     * @since 1.2.9
+     */
+    public void resetMetrics(final ResourceType type) {
+        this.bufferHits_[type.ordinal()].set(0);
+        this.bufferMisses_[type.ordinal()].set(0);
+        BuildHistogram h = this.getBuildHistogram(type);
+        if (null != h) {
+            h.reset();
+        }
+        Minimizer m = this.getMinimizer(type);
+        if (null != m) {
+            m.getRebuildLog().clear();
+        }
+        String ext = type.getExtension();
+        for (String key : this.served_.keySet()) {
+            if (key.endsWith(ext)) {
+                this.served_.remove(key);
+            }
+        }
+    }
+
+    private ObjectName[] mbeans_ = null;
+
+    private synchronized void registerMBeans_() {
+        if (null != this.mbeans_) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName[] names = new ObjectName[ResourceType.values().length];
+        try {
+            for (ResourceType type : ResourceType.values()) {
+                ObjectName name = new ObjectName("greenscript:type=Metrics,name="
+                        + type.name().toLowerCase());
+                if (server.isRegistered(name)) {
+                    // left by a previous instance, e.g. after a reload in dev
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(new GreenScriptMetrics(this, type), name);
+                names[type.ordinal()] = name;
+            }
+            this.mbeans_ = names;
+        } catch (Exception e) {
+            Logger.warn(e, "greenscript: cannot register metrics mbeans");
+        }
+    }
+
+    private synchronized void unregisterMBeans_() {
+        if (null == this.mbeans_) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : this.mbeans_) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                // already gone
+            }
+        }
+        this.mbeans_ = null;
+    }
+
+    @Override
+    public void onApplicationStop() {
+        this.unregisterMBeans_();
+        this.cleanUp_();
+    }
+
+    public String jsDebugString() {
+        return ((DependenceManager) this.jsD_).debugString();
+    }
+
+    public String cssDebugString() {
+        return ((DependenceManager) this.cssD_).debugString();
+    }
+
+    /*
+     * Sessions of the current request, created the first time a greenscript
+     * tag or session() is touched
+     */
+    private static ThreadLocal<IRenderSession> sessJs_ = new ThreadLocal<IRenderSession>();
+    private static ThreadLocal<IRenderSession> sessCss_ = new ThreadLocal<IRenderSession>();
+
+    /*
+     * Sessions recycled by requests served on the same thread, indexed by
+     * resource type ordinal
+     */
+    private static ThreadLocal<RenderSession[]> sessPool_ = new ThreadLocal<RenderSession[]>() {
+        @Override
+        protected RenderSession[] initialValue() {
+            return new RenderSession[ResourceType.values().length];
+        }
+    };
+
+    public static IRenderSession session(final String type) {
+        ResourceType rt = ResourceType.valueOf(type.toUpperCase());
+        switch (rt) {
+        case JS:
+            return jsSession();
+        case CSS:
+            return cssSession();
+        }
+        throw new UnexpectedException("unknown resource type: " + rt.name());
+    }
+
+    public static IRenderSession jsSession() {
+        IRenderSession sess = sessJs_.get();
+        if (null == sess) {
+            sess = getInstance().newSession_(ResourceType.JS);
+            sessJs_.set(sess);
+        }
+        return sess;
+    }
+
+    public static IRenderSession cssSession() {
+        IRenderSession sess = sessCss_.get();
+        if (null == sess) {
+            sess = getInstance().newSession_(ResourceType.CSS);
+            sessCss_.set(sess);
+        }
+        return sess;
+    }
+
+    private static class ResourceResolver extends Controller {
+        public static String def(final ResourceType type) {
+            if (null == Http.Request.current()) {
+                return null;
+            }
+            String template = Controller.template();
+            String urlPath = resourceUrl_.get(type.getExtension());
+            return null == template ? null : template.replaceFirst("^views/", urlPath)
+                    .replaceFirst("\\.[\\w]+$", type.getExtension());
+        }
+    }
+
+    @Override
+    public void beforeActionInvocation(final Method actionMethod) {
+        // sessions are created on demand, so that actions not rendering
+        // greenscript tags pay nothing
+        sessJs_.remove();
+        sessCss_.remove();
+    }
+
+    /*
+     * Jobs, mailers and errors raised before any action render tags too, on
+     * threads beforeActionInvocation is never called for, so the sessions
+     * are also dropped once every invocation ends
+     */
+    @Override
+    public void invocationFinally() {
+        sessJs_.remove();
+        sessCss_.remove();
+    }
+
+    @Override
+    public void onActionInvocationResult(final Result result) {
+        Response resp = Response.current();
+        if (null == resp) {
+            return;
+        }
+        if (this.preload_) {
+            this.preload_(resp);
+        }
+        if (this.serverTiming_ || this.timingLog_) {
+            this.timing_(resp);
+        }
+    }
+
+    /*
+     * Tell browsers about urls output by greenscript tags through Link headers
+     * once the template is rendered, so that they start downloading before
+     * parsing the page
+     */
+    private void preload_(final Response resp) {
+        StringBuilder sb = new StringBuilder();
+        this.preload_(sessJs_.get(), "script", sb);
+        this.preload_(sessCss_.get(), "style", sb);
+        if (0 == sb.length()) {
+            return;
+        }
+        appendHeader_(resp, "Link", sb);
+    }
+
+    /*
+     * Report the time spent by greenscript tags of the request through a
+     * Server-Timing header and/or a log line
+     */
+    private void timing_(final Response resp) {
+        StringBuilder sb = new StringBuilder();
+        this.timing_(sessJs_.get(), "gs-js", sb);
+        this.timing_(sessCss_.get(), "gs-css", sb);
+        if (0 == sb.length()) {
+            return;
+        }
+        if (this.timingLog_) {
+            Request req = Request.current();
+            info_("%1$s %2$s: %3$s", null == req ? "" : req.method, null == req ? ""
+                    : req.path, sb);
+        }
+        if (this.serverTiming_) {
+            appendHeader_(resp, "Server-Timing", sb);
+        }
+    }
+
+    private void timing_(final IRenderSession sess, final String prefix, final StringBuilder sb) {
+        if (!(sess instanceof RenderSession)) {
+            return;
+        }
+        RenderTimings t = ((RenderSession) sess).getTimings();
+        if (!t.isEmpty()) {
+            t.appendServerTiming(sb, prefix);
+        }
+    }
+
+    private void builtOnDemand_(final String key, final long nanos) {
+        if (0 == nanos) {
+            return;
+        }
+        if (this.timingLog_) {
+            info_("%1$s built on demand in %2$sms", key, RenderTimings.duration(nanos));
+        }
+        Response resp = Response.current();
+        if (this.serverTiming_ && null != resp) {
+            appendHeader_(resp, "Server-Timing",
+                    new StringBuilder("gs-build;dur=").append(RenderTimings.duration(nanos)));
+        }
+    }
+
+    private static void appendHeader_(final Response resp, final String name,
+            final StringBuilder sb) {
+        Http.Header h = resp.headers.get(name);
+        if (null != h) {
+            sb.insert(0, ", ").insert(0, h.value());
+        }
+        resp.setHeader(name, sb.toString());
+    }
+
+    private void preload_(final IRenderSession sess, final String as, final StringBuilder sb) {
+        if (!(sess instanceof RenderSession)) {
+            return;
+        }
+        for (String url : ((RenderSession) sess).getOutputs()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append("<").append(versionedUrl(url)).append(">; rel=preload; as=").append(as);
+        }
+    }
+
+    /**
+     * Serve in memory bundles before the request gets routed, so that no
+     * action, session, flash or template machinery is involved. This runs on
+     * an I/O thread, thus only serves bundles already in memory: the route to
+     * {@link controllers.greenscript.Service#getInMemoryCache(String)}
+     * remains for bundles to be built again, on the invoker pool
+     */
+    @Override
+    public boolean rawInvocation(final Request request, final Response response)
+            throws Exception {
+        String url = this.rawUrlPath_;
+        if (null == url || !request.path.startsWith(url)) {
+            return false;
+        }
+        boolean head = "HEAD".equalsIgnoreCase(request.method);
+        if (!head && !"GET".equalsIgnoreCase(request.method)) {
+            return false;
+        }
+        String key = request.path.substring(url.length());
+        String contentType = key.endsWith(".js") ? "text/javascript" : key.endsWith(".css")
+                ? "text/css" : null;
+        if (null == contentType || key.indexOf('/') > -1) {
+            return false;
+        }
+        BufferResource r = this.bufferLocator_.locate(key);
+        if (null == r) {
+            // counted as a miss by getInMemoryFile once routed
+            return false;
+        }
+        this.bufferHits_[(key.endsWith(".css") ? ResourceType.CSS : ResourceType.JS).ordinal()]
+                .incrementAndGet();
+        this.served_(key);
+        if (this.notModified(request, response, r.getETag(), r.getLastModified(),
+                this.isImmutable(key.endsWith(".js") ? ResourceType.JS : ResourceType.CSS))) {
+            return true;
+        }
+        response.status = Http.StatusCode.OK;
+        response.contentType = contentType;
+        if (!head) {
+            if ("utf-8".equalsIgnoreCase(response.encoding)) {
+                response.out.write(r.getBytes());
+            } else {
+                response.out.write(r.toString().getBytes(response.encoding));
+            }
+        }
+        return true;
+    }
+
+    // private static YUICompressor jsC_ = new YUICompressor(ResourceType.JS);
+    // private static YUICompressor cssC_ = new YUICompressor(ResourceType.CSS);
+    @Override
+    public boolean serveStatic(final VirtualFile file, final Request request,
+            final Response response) {
+        if (null == this.jsM_) {
+            if (Play.mode == Mode.DEV) {
+                Play.start();
+            } else {
+                throw new UnexpectedException("Minimizer not initialized");
+            }
+        }
+        String fn = file.getName();
+        if (fn.endsWith(".coffee")
+                || (fn.endsWith(".js") && this.jsM_.isMinimizeEnabled() && !file.relativePath()
+                        .startsWith(this.cacheUrlPath_()))) {
+            return this.processStatic_(file, request, response, ResourceType.JS);
+        }
+        if ((fn.endsWith("css") || fn.endsWith("less")) && this.cssM_.isMinimizeEnabled()
+                && !file.relativePath().startsWith(this.cacheUrlPath_())) {
+            return this.processStatic_(file, request, response, ResourceType.CSS);
+        }
+
+        if ((fn.endsWith(".css") || fn.endsWith(".js"))
+                && request.path.startsWith(this.cacheUrlPath_())) {
+            // minimized resource. Other files, e.g. unversioned application
+            // scripts, are left to Play as they might change at next deploy
+            File f = file.getRealFile();
+            this.served_(fn);
+            if (this.notModified(request, response, this.fileETag_(f), f.lastModified(),
+                    this.isImmutable(fn.endsWith(".js") ? ResourceType.JS : ResourceType.CSS))) {
+                this.keepFlash_();
+                return true;
+            }
+            this.sendFile_(f, request, response, fn.endsWith(".js") ? "text/javascript"
+                    : "text/css");
+            this.keepFlash_();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Let Play stream a bundle file to the client, with a file region (or
+     * chunks over SSL) rather than through the heap. A gzipped sibling, e.g.
+     * <code>all.js.gz</code>, is sent instead when the client accepts it and
+     * the sibling is not older than the bundle
+     */
+    private void sendFile_(final File f, final Request req, final Response resp,
+            final String contentType) {
+        resp.status = Http.StatusCode.OK;
+        resp.contentType = contentType;
+        resp.setHeader(Names.VARY, Names.ACCEPT_ENCODING);
+        File gz = new File(f.getPath() + ".gz");
+        if (acceptGzip_(req) && gz.isFile() && gz.lastModified() >= f.lastModified()) {
+            resp.setHeader(Names.CONTENT_ENCODING, "gzip");
+            resp.direct = gz;
+        } else {
+            resp.direct = f;
+        }
+    }
+
+    private static boolean acceptGzip_(final Request req) {
+        Http.Header h = req.headers.get("accept-encoding");
+        if (null == h) {
+            return false;
+        }
+        for (String v : h.values) {
+            for (String s : v.split(",")) {
+                String[] sa = s.trim().split(";");
+                if ("gzip".equalsIgnoreCase(sa[0].trim())) {
+                    // gzip;q=0 means not acceptable
+                    return sa.length < 2 || !sa[1].trim().matches("q\\s*=\\s*0(\\.0*)?");
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=8640000, immutable";
+
+    /**
+     * Set the validators of a bundle to the response, and answer
+     * <code>304 Not Modified</code> if the validators sent with the request
+     * match. <code>If-None-Match</code> takes precedence over
+     * <code>If-Modified-Since</code>
+     * 
+     * @param etag
+     *            a strong entity tag computed from the bundle content
+     * @param lastModified
+     * @param immutable
+     *            true if the content behind the url never changes, in which
+     *            case clients are told not to revalidate it
+     * @return true if <code>304 Not Modified</code> is answered
+     */
+    public boolean notModified(final Request req, final Response resp, final String etag,
+            final long lastModified, final boolean immutable) {
+        resp.setHeader(Names.CACHE_CONTROL, immutable ? CACHE_CONTROL_IMMUTABLE : "no-cache");
+        if (this.eTag_) {
+            resp.setHeader(Names.ETAG, etag);
+        }
+        resp.setHeader(Names.LAST_MODIFIED,
+                Utils.getHttpDateFormatter().format(new Date(lastModified)));
+        if (!"GET".equalsIgnoreCase(req.method) && !"HEAD".equalsIgnoreCase(req.method)) {
+            return false;
+        }
+        boolean notModified = false;
+        Http.Header h = req.headers.get("if-none-match");
+        if (null != h) {
+            for (String v : h.values) {
+                for (String s : v.split(",")) {
+                    s = s.trim();
+                    if (s.startsWith("W/")) {
+                        s = s.substring(2);
+                    }
+                    if ("*".equals(s) || (this.eTag_ && etag.equals(s))) {
+                        notModified = true;
+                    }
+                }
+            }
+        } else {
+            h = req.headers.get("if-modified-since");
+            if (null != h) {
+                try {
+                    Date d = Utils.getHttpDateFormatter().parse(h.value());
+                    // http dates are precise to the second
+                    notModified = lastModified / 1000 <= d.getTime() / 1000;
+                } catch (ParseException e) {
+                    // not a valid validator
+                }
+            }
+        }
+        if (notModified) {
+            resp.status = Http.StatusCode.NOT_MODIFIED;
+        }
+        return notModified;
+    }
+
+    private static final class FileTag {
+        final long lastModified;
+        final long length;
+        final String etag;
+
+        FileTag(final long lastModified, final long length, final String etag) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.etag = etag;
+        }
+    }
+
+    private static final int MAX_FILE_TAGS_ = 1000;
+
+    private LRUCache<File, FileTag> fileTags_ = new LRUCache<File, FileTag>(MAX_FILE_TAGS_);
+
+    /**
+     * Return a strong entity tag of a file, computed from its content once
+     * per change of the file
+     */
+    private String fileETag_(final File f) {
+        long lastModified = f.lastModified(), length = f.length();
+        FileTag tag = this.fileTags_.get(f);
+        if (null == tag || tag.lastModified != lastModified || tag.length != length) {
+            tag = new FileTag(lastModified, length, "\"" + digest_(f) + "\"");
+            this.fileTags_.put(f, tag);
+        }
+        return tag.etag;
+    }
+
+    /*
+     * Hash a file through a fixed buffer, as bundles streamed by sendFile_
+     * shall not be read into the heap
+     */
+    private static String digest_(final File f) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            InputStream is = new FileInputStream(f);
+            try {
+                byte[] buf = new byte[8192];
+                for (int n = is.read(buf); n > -1; n = is.read(buf)) {
+                    md.update(buf, 0, n);
+                }
+            } finally {
+                is.close();
+            }
+            return String.format("%032x", new BigInteger(1, md.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (IOException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    // private static final Pattern P_IMPORT =
+    // Pattern.compile(".*@import\\s*\"(.*?)\".*");
+    // private Set<File> imports_(File file) {
+    // String key = "less_imports_" + file.getPath() + file.lastModified();
+    //
+    // @SuppressWarnings("unchecked")
+    // Set<File> files = Cache.get(key, Set.class);
+    // if (null == files) {
+    // files = new HashSet<File>();
+    // try {
+    // List<String> lines = IO.readLines(file);
+    // for (String line: lines) {
+    // Matcher m = P_IMPORT.matcher(line);
+    // while (m.find()) {
+    // File f = new File(file.getParentFile(), m.group(1));
+    // files.add(f);
+    // files.addAll(imports_(f));
+    // }
+    // }
+    // } catch (Exception e) {
+    // Logger.error(e, "Error occurred getting @imports from resource: $s",
+    // file);
+    // }
+    // }
+    // return files;
+    // }
+
+    // private long lastModified_(VirtualFile file, ResourceType type) {
+    // long l = file.lastModified();
+    // if (ResourceType.CSS == type) {
+    // // try to get last modified of all @imported files
+    // for (File f: imports_(file.getRealFile())) {
+    // l = Math.max(l, f.lastModified());
+    // }
+    // }
+    // return l;
+    // }
+
+    private void keepFlash_() {
+        Flash f = Flash.current();
+        if (f != null) {
+            f.keep();
+        }
+    }
+
+    private boolean processStatic_(final VirtualFile file, final Request req, final Response resp,
+            final ResourceType type) {
+        /*
+         * IRenderSession sess = type == ResourceType.JS ? jsSession() :
+         * cssSession(); if (null != sess && sess.hasDeclared()) { // do not
+         * service static if requesting to minimized files return false; }
+         */
+        if (Play.mode == Mode.PROD) {
+            resp.cacheFor("1h");
+        }
+        IMinimizer min = type == ResourceType.CSS ? this.cssM_ : this.jsM_;
+        long l = min.getLastModified(file.getRealFile());
+        final String etag = "\"" + l + "-" + file.hashCode() + "\"";
+        if (!req.isModified(etag, l)) {
+            if (req.method.equalsIgnoreCase("GET")) {
+                resp.status = Http.StatusCode.NOT_MODIFIED;
+                if (this.eTag_) {
+                    resp.setHeader(Names.ETAG, etag);
+                }
+                this.keepFlash_();
+                return true;
+            } else {
+                return false;
+            }
+        } else {
+
+            try {
+                String content = min.processStatic(file.getRealFile());
+                resp.contentType = type == ResourceType.JS ? "text/javascript" : "text/css";
+                resp.status = 200;
+                resp.print(content);
+                resp.setHeader(Names.LAST_MODIFIED,
+                        Utils.getHttpDateFormatter().format(new Date(l + 1000)));
+                if (this.eTag_) {
+                    resp.setHeader(Names.ETAG, etag);
+                }
+                this.keepFlash_();
+                return true;
+            } catch (Exception e) {
+                Logger.error(e, "error compress file %1$s", file.getName());
+                return false;
+            }
+        }
+    }
+
+    private HashMap<String, Long> currentConfigFiles() {
+        HashMap<String, Long> files = new HashMap<String, Long>();
+
+        for (VirtualFile vf : Play.roots) {
+            VirtualFile conf = vf.child("conf/greenscript.conf");
+            if (conf.exists()) {
+                files.put(conf.getRealFile().getAbsolutePath(), conf.getRealFile().lastModified());
+            }
+        }
+
+        return files;
+    }
+
+    private boolean filesChanged(final HashMap<String, Long> oldFiles,
+            final HashMap<String, Long> newFiles) {
+        if (oldFiles.size() != newFiles.size()) {
+            return true;
+        }
+
+        for (Entry<String, Long> entry : oldFiles.entrySet()) {
+            Long newTime = newFiles.get(entry.getKey());
+            if (newTime == null || !newTime.equals(entry.getValue())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public void detectChange() {
+        if (Play.mode == Play.Mode.PROD) {
+            return;
+        }
+
+        if (null != this.fileLocator_ && this.fileLocator_.refreshIfChanged()) {
+            Logger.debug("greenscript: resource files changed, index rebuilt");
+        }
+
+        if (this.filesChanged(this.configFiles_, this.currentConfigFiles())) {
+            Logger.debug("greenscript: config files changed, reloading dependencies");
+            GreenScriptPlugin.reloadDependencies();
+        }
+    }
+
+    public void loadDependencies() {
+        Properties p = new Properties();
+        for (VirtualFile vf : Play.roots) {
+            VirtualFile conf = vf.child("conf/greenscript.conf");
+            if (conf.exists()) {
+                // info_("loading dependency configuration from %1$s",
+                // conf.getRealFile().getAbsolutePath());
+                try {
+                    Properties p0 = new Properties();
+                    p0.load(new BufferedInputStream(conf.inputstream()));
+                    for (String k : p0.stringPropertyNames()) {
+                        // info_("loading property: %s", k);
+                        if (!p.containsKey(k)) {
+                            info_("loading property for %s: %s", k, p0.get(k));
+                            p.put(k, p0.get(k));
+                        } else {
+                            String v = p.getProperty(k);
+                            String v0 = p0.getProperty(k);
+                            v = v + "," + v0;
+                            // info_("loading duplicate property for %s: %s", k,
+                            // v);
+                            p.setProperty(k, v);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new UnexpectedException("error loading conf/greenscript.conf");
+                }
+            }
+        }
+        this.configFiles_ = this.currentConfigFiles();
+        // info_("greenscript.conf loaded: %s", p);
+        DependenceManager jsD = this.loadDependenceManager_(p, "js");
+        DependenceManager cssD = this.loadDependenceManager_(p, "css");
+        int comprehendCacheSize = this.getIntProp_(Play.configuration,
+                "greenscript.cache.comprehend.size", DependenceManager.DEF_COMPREHEND_CACHE_SIZE);
+        jsD.setComprehendCacheSize(comprehendCacheSize);
+        cssD.setComprehendCacheSize(comprehendCacheSize);
+        int inlineCacheSize = this.getIntProp_(Play.configuration, "greenscript.cache.inline.size",
+                DependenceManager.DEF_INLINE_CACHE_SIZE);
+        jsD.setInlineCacheSize(inlineCacheSize);
+        cssD.setInlineCacheSize(inlineCacheSize);
+        this.jsD_ = jsD;
+        this.cssD_ = cssD;
+        this.jsAttributes_ = this.loadAttributes_(p, "js", "async", "defer");
+
+        this.depConf_ = p;
+        info_("dependency loaded");
+    }
+
+    /**
+     * Load attributes declared for resources of the given type, e.g.
+     * <code>js.@async=analytics,widgets</code>
+     */
+    private Map<String, String> loadAttributes_(final Properties p, final String type,
+            final String... attributes) {
+        Map<String, String> m = new HashMap<String, String>();
+        for (String attribute : attributes) {
+            String v = p.getProperty(type + ".@" + attribute);
+            if (null == v) {
+                continue;
+            }
+            for (String s : v.replaceAll("\\s+", "").split(IDependenceManager.SEPARATOR)) {
+                if (!"".equals(s)) {
+                    m.put(s, attribute);
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Load the dependence graph of the given type from the file written by
+     * "play precompile", or from greenscript.conf if the file is not found or
+     * out of date
+     */
+    private DependenceManager loadDependenceManager_(final Properties p, final String type) {
+        File f = Play.getFile("precompiled/greenscript/" + type + ".graph");
+        long checksum = this.configChecksum_(type);
+        if (f.exists()) {
+            try {
+                InputStream is = new FileInputStream(f);
+                try {
+                    DependenceManager d = DependenceManager.readGraph(is, checksum);
+                    if (null != d) {
+                        info_("%1$s dependencies loaded from %2$s", type, f.getPath());
+                        return d;
+                    }
+                    info_("%1$s is out of date, loading %2$s dependencies from greenscript.conf",
+                            f.getPath(), type);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException e) {
+                Logger.warn(e, "greenscript: error loading %1$s, "
+                        + "loading %2$s dependencies from greenscript.conf", f.getPath(), type);
+            }
+        }
+
+        DependenceManager d = new DependenceManager(this.loadDepProp_(p, type));
+        if (null != System.getProperty("precompile")) {
+            try {
+                f.getParentFile().mkdirs();
+                OutputStream os = new FileOutputStream(f);
+                try {
+                    d.writeGraph(os, checksum);
+                } finally {
+                    os.close();
+                }
+                info_("%1$s dependencies written to %2$s", type, f.getPath());
+            } catch (IOException e) {
+                throw new UnexpectedException(e);
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Checksum of all greenscript.conf files, which identifies the
+     * declarations a precompiled dependence graph is built from
+     */
+    private long configChecksum_(final String type) {
+        CRC32 crc = new CRC32();
+        crc.update(type.getBytes());
+        for (VirtualFile vf : Play.roots) {
+            VirtualFile conf = vf.child("conf/greenscript.conf");
+            if (conf.exists()) {
+                crc.update(conf.content());
+            }
+        }
+        return crc.getValue();
+    }
+
+    public void InitializeMinimizers() {
+        Properties p = Play.configuration;
+
+        for (String key : p.stringPropertyNames()) {
+            if (key.startsWith("greenscript.")) {
+                String v = p.getProperty(key);
+                this.minConf_.setProperty(key, p.getProperty(key));
+                trace_("[greenscript]set %1$s to %2$s", v, key);
+            }
+        }
+
+        this.initializeFileLocator_(this.minConf_);
+        this.jsM_ = this.initializeMinimizer_(this.minConf_, ResourceType.JS);
+        this.cssM_ = this.initializeMinimizer_(this.minConf_, ResourceType.CSS);
+        int outputCacheSize = this.getIntProp_(this.minConf_, "greenscript.cache.output.size",
+                OutputCache.DEF_SIZE);
+        this.jsOutput_.setCapacity(outputCacheSize);
+        this.cssOutput_.setCapacity(outputCacheSize);
+        this.preload_ = this.getBooleanProp_(this.minConf_, "greenscript.preload", false);
+        this.serverTiming_ = this.getBooleanProp_(this.minConf_, "greenscript.timing.header",
+                false);
+        this.timingLog_ = this.getBooleanProp_(this.minConf_, "greenscript.timing.log", false);
+
+        if (p.containsKey("greenscript.coffee.enabled")) {
+            System.setProperty("greenscript.coffee.enabled",
+                    p.getProperty("greenscript.coffee.enabled"));
+        }
+
+        if (p.containsKey("greenscript.less.enabled")) {
+            System.setProperty("greenscript.less.enabled",
+                    p.getProperty("greenscript.less.enabled"));
+        }
+
+        info_("minimizer initialized");
+    }
+
+    private static final Map<String, String> NO_ATTRIBUTES_ = Collections.emptyMap();
+
+    private IRenderSession newSession_(final ResourceType type) {
+        IMinimizer m = type == ResourceType.JS ? this.jsM_ : this.cssM_;
+        IDependenceManager d = type == ResourceType.JS ? this.jsD_ : this.cssD_;
+        RenderSession[] pool = sessPool_.get();
+        RenderSession sess = pool[type.ordinal()];
+        if (null == sess) {
+            sess = new RenderSession(m, d, type);
+            pool[type.ordinal()] = sess;
+        } else {
+            sess.reset(m, d);
+        }
+        sess.setOutputCache(type == ResourceType.JS ? this.jsOutput_ : this.cssOutput_);
+        sess.setAttributes(type == ResourceType.JS ? this.jsAttributes_ : NO_ATTRIBUTES_);
+        /*
+         * Automatically declare resource of the action template, e.g.
+         * /public/javascripts/Application/index.js or
+         * /public/stylesheets/Application/index.css
+         */
+        String def = ResourceResolver.def(type);
+        if (null != def) {
+            sess.declare(def, null, null);
+        }
+        return sess;
+    }
+
+    public Properties getDependencyConfig() {
+        Properties p = new Properties();
+        p.putAll(this.depConf_);
+        return p;
+    }
+
+    public Properties getMinimizerConfig() {
+        Properties p = new Properties();
+        p.putAll(this.minConf_);
+        return p;
+    }
+
+    private String join_(final Collection<String> c) {
+        boolean first = true;
+        StringBuffer sb = new StringBuffer();
+        for (String s : c) {
+            if (!first) {
+                sb.append(",");
+            } else {
+                first = false;
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private void mergeProperties_(final Properties p, final String k, final String v) {
+        String oldV = p.getProperty(k);
+        if (null == oldV) {
+            p.setProperty(k, v);
+        } else {
+            Set<String> oldS = new HashSet<String>();
+            oldS.addAll(Arrays.asList(oldV.split(IDependenceManager.SEPARATOR)));
+            Set<String> newS = new HashSet<String>();
+            newS.addAll(Arrays.asList(v.split(IDependenceManager.SEPARATOR)));
+            oldS.addAll(newS);
+            p.setProperty(k, this.join_(oldS));
+        }
+    }
+
+    // type should be "js" or "css"
+    private Properties loadDepProp_(final Properties p, final String type) {
+        Properties p0 = new Properties();
+        String prefix = type + ".";
+        for (String k : p.stringPropertyNames()) {
+            if (k.startsWith(prefix) && !k.startsWith(prefix + "@")) {
+                String k0 = k.replace(prefix, "");
+                String v = p.getProperty(k);
+                if (k0.matches(".*\\s*\\-\\s*$")) {
+                    // reverse dependency declaration
+                    k0 = k0.replaceAll("\\s*\\-\\s*$", "");
+                    for (String s : v.replaceAll("\\s+", "").split(IDependenceManager.SEPARATOR)) {
+                        this.mergeProperties_(p0, s, k0);
+                    }
+                } else {
+                    this.mergeProperties_(p0, k0, v);
+                }
+                trace_("Found one %1$s dependency: %2$s depends on '%3$s'", type, k0, v);
+            }
+        }
+        return p0;
+    }
+
+    public static final String CACHE_KEY_BUFFER = "greenscript.buffer";
+    protected boolean inMemoryCache = false;
+    private static Map<String, String> resourceUrl_ = new HashMap<String, String>();
+
+    private void setResourceUrlPath_(final String resourceUrlRoot, String resourceUrlPath,
+            final String ext) {
+        String path = null, ctxPath = Play.ctxPath;
+        if (!resourceUrlPath.endsWith("/")) {
+            resourceUrlPath = resourceUrlPath + "/";
+        }
+        if (resourceUrlPath.startsWith("/")) {
+            path = resourceUrlPath.startsWith(ctxPath) ? resourceUrlPath : ctxPath
+                    + resourceUrlPath;
+        } else {
+            path = resourceUrlRoot + resourceUrlPath;
+        }
+        resourceUrl_.put(ext, path);
+    }
+
+    private String resourceUrlRoot_() {
+        Properties p = this.minConf_;
+        String urlRoot = fetchProp_(p, "greenscript.url.root");
+        if (!urlRoot.startsWith("/")) {
+            throw new IllegalArgumentException("url root must start with /");
+        }
+        // checkInitialize_(false);
+        if (!urlRoot.endsWith("/")) {
+            urlRoot = urlRoot + "/";
+        }
+
+        return urlRoot.startsWith(Play.ctxPath) ? urlRoot : Play.ctxPath + urlRoot;
+    }
+
+    private String cacheUrlPath_() {
+        String resourceUrlRoot = this.resourceUrlRoot_();
+        if (null == resourceUrlRoot) {
+            throw new IllegalStateException("resourceUrlRoot must be initiated first");
+        }
+        Properties p = Play.configuration;
+        String urlPath = fetchProp_(p, "greenscript.url.minimized"), ctxPath = Play.ctxPath;
+        if (!urlPath.endsWith("/")) {
+            urlPath = urlPath + "/";
+        }
+        if (urlPath.startsWith("/")) {
+            return urlPath.startsWith(ctxPath) ? urlPath : ctxPath + urlPath;
+        } else {
+            return resourceUrlRoot + urlPath;
+        }
+    }
+
+    private IndexedFileLocator fileLocator_;
+
+    /*
+     * index all files under the resource root dir of all application and
+     * module roots, so that resolving resource names does not need to search
+     * Play.roots each time
+     */
+    private void initializeFileLocator_(final Properties p) {
+        IndexedFileLocator fl = new IndexedFileLocator(new IFileLocator() {
+            public File locate(final String path) {
+                VirtualFile vf = VirtualFile.search(Play.roots, path);
+                return vf == null ? null : vf.getRealFile();
+            }
+        });
+        String rootDir = fetchProp_(p, "greenscript.dir.root");
+        for (VirtualFile root : Play.roots) {
+            VirtualFile dir = root.child(rootDir);
+            if (dir.exists()) {
+                fl.addDir(dir.getRealFile(), rootDir);
+            }
+        }
+        fl.rebuild();
+        this.fileLocator_ = fl;
+        trace_("%1$s resource files indexed", fl.size());
+    }
+
+    private Minimizer initializeMinimizer_(final Properties p, final ResourceType type) {
+        final Minimizer m = new Minimizer(type);
+        m.setFileLocator(this.fileLocator_);
+        m.setBufferLocator(this.bufferLocator_);
+
+        boolean routerMapping = this.getBooleanProp_(p, "greenscript.router.mapping", false);
+
+        if (routerMapping) {
+            m.setRouteMapper(new IRouteMapper() {
+                public String reverse(final String fileName) {
+                    try {
+                        String url = Router.reverseWithCheck(fileName,
+                                Play.getVirtualFile(fileName), false);
+                        if (fileName.endsWith("/") && !url.endsWith("/")) {
+                            url = url + "/";
+                        }
+                        return url;
+                    } catch (NoRouteFoundException e) {
+                        return fileName;
+                    }
+                }
+
+                public String route(final String url) {
+                    try {
+                        Map<String, String> args = Router.route("GET", url);
+                        return args.get("action");
+                    } catch (RenderStatic rs) {
+                        String fileName = rs.file;
+                        if (url.startsWith("/") && !fileName.startsWith("/")) {
+                            fileName = "/" + fileName;
+                        }
+                        return fileName;
+                    } catch (NotFound ex) {
+                        return url;
+                    }
+                }
+            });
+        }
+
+        String ext = type.getExtension();
+        String rootDir = fetchProp_(p, "greenscript.dir.root");
+        String resourceDir = fetchProp_(p, "greenscript.dir" + ext);
+        String cacheDir = fetchProp_(p, "greenscript.dir.minimized");
+
+        String urlRoot = this.resourceUrlRoot_();
+        String resourceUrl = fetchProp_(p, "greenscript.url" + ext);
+        String cacheUrl = this.cacheUrlPath_();
+        this.setResourceUrlPath_(urlRoot, resourceUrl, ext);
+
+        m.setUrlContextPath(Play.ctxPath);
+        m.setResourceUrlRoot(urlRoot);
+        m.setResourceUrlPath(resourceUrl);
+        m.setCacheUrlPath(cacheUrl);
+        m.setRootDir(rootDir);
+        m.setCacheDir(Play.getFile(cacheDir));
+        m.setResourceDir(resourceDir);
+
+        boolean resourcesParameter = this.getBooleanProp_(p, "greenscript.resources.param.enabled",
+                false);
+        m.setResourcesParam(resourcesParameter ? RESOURCES_PARAM : null);
+
+        boolean minimize = this.getBooleanProp_(p, "greenscript.minimize", Play.mode == Mode.PROD);
+        boolean compress = this.getBooleanProp_(p, "greenscript.compress", true);
+        boolean cache = this.getBooleanProp_(p, "greenscript.cache", true);
+        this.inMemoryCache = this.getBooleanProp_(p, "greenscript.cache.inmemory", false);
+        boolean processInline = this.getBooleanProp_(p, "greenscript.inline.process", false);
+        boolean externalizeInline = this.getBooleanProp_(p, "greenscript.inline.externalize",
+                false);
+        System.setProperty("greenscript.lessCompile.postMerge",
+                fetchProp_(p, "greenscript.lessCompile.postMerge"));
+
+        m.enableDisableMinimize(minimize);
+        m.enableDisableCompress(compress);
+        m.enableDisableCache(cache);
+        m.enableDisableInMemoryCache(this.inMemoryCache);
+        m.enableDisableProcessInline(processInline);
+        m.enableDisableExternalizeInline(externalizeInline);
+        m.setExternalizeInlineThreshold(this.getIntProp_(p,
+                "greenscript.inline.externalize.threshold",
+                Minimizer.DEF_EXTERNALIZE_INLINE_THRESHOLD));
+        m.setProcessCacheSize(this.getIntProp_(p, "greenscript.cache.process.size",
+                Minimizer.DEF_PROCESS_CACHE_SIZE));
+        m.setInlineCacheSize(this.getIntProp_(p, "greenscript.cache.inline.process.size",
+                Minimizer.DEF_INLINE_CACHE_SIZE));
+        m.setSlowBuildThreshold(this.getIntProp_(p, "greenscript.build.slow.threshold", 0));
+        m.getRebuildLog().setCapacity(this.getIntProp_(p, "greenscript.rebuild.log.size",
+                RebuildLog.DEF_SIZE));
+        BuildHistogram h = null;
+        if (this.getBooleanProp_(p, "greenscript.build.histogram", false)) {
+            h = new BuildHistogram();
+            m.addBuildListener(h);
+        }
+        this.histograms_[type.ordinal()] = h;
+
+        trace_("minimizer for %1$s loaded", type.name());
+        return m;
+    }
+
+    public String getInMemoryFileContent(final String key, final String resourceNames) {
+        IResource resource = this.getInMemoryFile(key, resourceNames);
+        return null == resource ? null : resource.toString();
+    }
+
+    /**
+     * Return the in memory bundle of the given key, minimizing the resources
+     * again if the bundle is gone and the resource names are known
+     * 
+     * @since 1.2.9
+     */
+    public BufferResource getInMemoryFile(final String key, final String resourceNames) {
+        IResource resource = this.bufferLocator_.locate(key);
+        int type = (key.endsWith(".css") ? ResourceType.CSS : ResourceType.JS).ordinal();
+        (null == resource ? this.bufferMisses_[type] : this.bufferHits_[type]).incrementAndGet();
+
+        if (resource == null && resourceNames != null) {
+            Minimizer minimizer = null;
+            // Select the minimizer.
+            if (key.endsWith(".js")) {
+                minimizer = this.jsM_;
+            } else if (key.endsWith(".css")) {
+                minimizer = this.cssM_;
+            }
+
+            long builds = null == minimizer ? 0 : minimizer.getThreadBuildNanos();
+            resource = null == minimizer ? null : minimizer.minimize(resourceNames);
+            if (null != resource && !key.equals(resource.getKey())) {
+                // the resources do not make the bundle asked for
+                resource = null;
+            }
+            if (null != minimizer) {
+                this.builtOnDemand_(key, minimizer.getThreadBuildNanos() - builds);
+            }
+        }
+
+        if (!(resource instanceof BufferResource)) {
+            return null;
+        }
+        this.served_(key);
+        return (BufferResource) resource;
+    }
+
+    private static String bufferCacheKey_(final String key) {
+        return String.format("%s.%s", CACHE_KEY_BUFFER, key);
+    }
+
+    /*
+     * A buffer put into the cache once written, so that neither requests
+     * nor other nodes sharing the cache find it empty while the bundle is
+     * being built
+     */
+    private static final class CachedBuffer extends BufferResource {
+        private static final long serialVersionUID = -2771503812468318452L;
+
+        CachedBuffer(final String key) {
+            super(key);
+        }
+
+        @Override
+        protected void written() {
+            Cache.set(bufferCacheKey_(this.getKey()), this);
+        }
+    }
+
+    private IBufferLocator bufferLocator_ = new IBufferLocator() {
+        public BufferResource locate(final String key) {
+            return Cache.get(bufferCacheKey_(key), BufferResource.class);
+        }
+
+        public BufferResource newBuffer(final List<String> resourceNames, final String extension) {
+            StringBuilder builder = new StringBuilder();
+            for (String resourceName : resourceNames) {
+                builder.append(resourceName);
+            }
+
+            String key = UUID.nameUUIDFromBytes(builder.toString().getBytes()).toString()
+                    + extension;
+
+            Logger.info("Created key '%s' from resources '%s' and extension '%s'", key,
+                    builder.toString(), extension);
+
+            return new CachedBuffer(key);
+        }
+    };
+
+    private static String fetchProp_(final Properties p, final String key) {
+        String val = p.getProperty(key);
+        if (null == val) {
+            val = defProps_.getProperty(key);
+        }
+        return val;
+    }
+
+    private boolean getBooleanProp_(final Properties p, final String key, final boolean def) {
+        try {
+            String s = p.containsKey(key) ? p.getProperty(key)
+                    : defProps_.containsKey(key) ? defProps_.getProperty(key) : String.valueOf(def);
+
+            p.setProperty(key, s);
+            return Boolean.parseBoolean(s);
+        } catch (Exception e) {
+            p.setProperty(key, String.valueOf(def));
+            return def;
+        }
+    }
+
+    private int getIntProp_(final Properties p, final String key, final int def) {
+        try {
+            String s = p.containsKey(key) ? p.getProperty(key)
+                    : defProps_.containsKey(key) ? defProps_.getProperty(key) : String.valueOf(def);
+
+            int i = Integer.parseInt(s.trim());
+            p.setProperty(key, String.valueOf(i));
+            return i;
+        } catch (Exception e) {
+            p.setProperty(key, String.valueOf(def));
+            return def;
+        }
+    }
+
+    // private File getDir_(String dir) {
+    // return Play.getFile(dir);
+    // }
+
+    private void cleanUp_() {
+        if (null != this.jsM_) {
+            this.jsM_.clearCache();
+        }
+        if (null != this.cssM_) {
+            this.cssM_.clearCache();
+        }
+    }
+
+    public static GreenScriptPlugin getInstance() {
+        for (PlayPlugin pp : Play.pluginCollection.getEnabledPlugins()) {
+            if (pp instanceof GreenScriptPlugin) {
+                return (GreenScriptPlugin) pp;
+            }
+        }
+        return null;
+    }
+
+    public static void updateMinimizer(final boolean minimize, final boolean compress,
+            final boolean cache, final boolean inMemoryCache) {
+        GreenScriptPlugin gs = getInstance();
+        gs.jsM_.enableDisableMinimize(minimize);
+        gs.jsM_.enableDisableCompress(compress);
+        gs.jsM_.enableDisableCache(cache);
+        gs.jsM_.enableDisableInMemoryCache(inMemoryCache);
+
+        gs.cssM_.enableDisableMinimize(minimize);
+        gs.cssM_.enableDisableCompress(compress);
+        gs.cssM_.enableDisableCache(cache);
+        gs.cssM_.enableDisableInMemoryCache(inMemoryCache);
+        gs.inMemoryCache = inMemoryCache;
+
+        gs.updateRoute_();
+
+        gs.minConf_.setProperty("greenscript.minimize", String.valueOf(minimize));
+        gs.minConf_.setProperty("greenscript.compress", String.valueOf(compress));
+        gs.minConf_.setProperty("greenscript.cache", String.valueOf(cache));
+        gs.minConf_.setProperty("greenscript.cache.inmemory", String.valueOf(inMemoryCache));
+    }
+
+    public static void enableDisableMinimize(final boolean minimize) {
+        GreenScriptPlugin gs = getInstance();
+        gs.jsM_.enableDisableMinimize(minimize);
+        gs.minConf_.setProperty("greenscript.minimize", String.valueOf(minimize));
+        info_("minimize %s", minimize ? "enabled" : "disabled");
+    }
+
+    public static void enableDisableCompress(final boolean compress) {
+        GreenScriptPlugin gs = getInstance();
+        gs.jsM_.enableDisableCompress(compress);
+        gs.minConf_.setProperty("greenscript.compress", String.valueOf(compress));
+        info_("compress %s", compress ? "enabled" : "disabled");
+    }
+
+    public static void enableDisableCache(final boolean cache) {
+        GreenScriptPlugin gs = getInstance();
+        gs.jsM_.enableDisableCache(cache);
+        gs.minConf_.setProperty("greenscript.cache", String.valueOf(cache));
+        info_("cache %s", cache ? "enabled" : "disabled");
+    }
+
+    public static void reloadDependencies() {
+        GreenScriptPlugin gs = getInstance();
+        gs.loadDependencies();
+        info_("dependency reloaded");
+    }
+
+    /**
+     * Return the url as output by the greenscript tags, i.e. with the
+     * application version appended, so that browsers fetch resources again
+     * after a deployment
+     *
+     * @param url
+     * @since 1.2.9
+     */
+    public static String versionedUrl(final String url) {
+        return url + "?v" + Play.configuration.getProperty("application.version", "1.0");
+    }
+
+    public static String lessImport(final String fns) {
+        GreenScriptPlugin gs = getInstance();
+        Properties p = gs.minConf_;
+        String rootDir = fetchProp_(p, "greenscript.dir.root");
+        String resourceDir = fetchProp_(p, "greenscript.dir.css");
+        StringBuilder sb = new StringBuilder();
+        String[] sa = fns.split("[ ,;]");
+        for (String fn : sa) {
+            fn = fn.endsWith(".css") ? fn : fn + ".css";
+            String path;
+            if (fn.startsWith("/")) {
+                path = (!fn.startsWith(rootDir)) ? rootDir + fn.replaceFirst("/", "") : fn;
+            } else {
+                path = rootDir + File.separator + resourceDir + File.separator + fn;
+            }
+            File f = gs.fileLocator_.locate(path);
+            if (null != f && f.isFile()) {
+                sb.append(VirtualFile.open(f).contentAsString());
+            }
+        }
+        return sb.toString();
+    }
+}